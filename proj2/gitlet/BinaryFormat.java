@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * The compact binary format of the gitlet metadata, used instead of java serialization,
+ * which stores the class descriptors and the whole object graph.
+ * Every file starts with a magic number and a version byte, the strings are
+ * length-prefixed UTF-8 and the sha1 hashes are stored as 20 raw bytes.
+ * The lengths are written as var ints, 7 bits in a byte, low group first.
+ * <p>
+ * The map format, for Branches and Stage_Add, name to hash:
+ * MAP_MAGIC | VERSION | count | (name | hash) * count
+ * The set format, for Stage_REMOVAL:
+ * SET_MAGIC | VERSION | count | name * count
+ * <p>
+ * The files written by java serialization start with 0xACED, they are still read,
+ * and written in the binary format the next time they are saved.
+ * The commits have their own binary format, see Commit.toBytes.
+ *
+ * @author GreyQian
+ */
+class BinaryFormat {
+    /**
+     * The magic number of the map format, "GMAP".
+     */
+    private static final int MAP_MAGIC = 0x474d4150;
+    /**
+     * The magic number of the set format, "GSET".
+     */
+    private static final int SET_MAGIC = 0x47534554;
+    /**
+     * The version of the formats.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Check weather the bytes are written by java serialization.
+     */
+    static boolean isSerialized(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+
+    /**
+     * Encode the map from names to hashes.
+     */
+    static byte[] encodeMap(Map<String, String> map) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAP_MAGIC);
+            out.writeByte(VERSION);
+            writeVarInt(out, map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeString(out, entry.getKey());
+                writeID(out, entry.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a map from names to hashes, in either format.
+     */
+    @SuppressWarnings("unchecked")
+    static TreeMap<String, String> decodeMap(byte[] bytes) {
+        if (isSerialized(bytes)) {
+            return deserialize(bytes, TreeMap.class);
+        }
+        TreeMap<String, String> map = new TreeMap<>();
+        if (bytes.length == 0) {
+            return map;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            checkHeader(in, MAP_MAGIC, VERSION);
+            int count = readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                String name = readString(in);
+                map.put(name, readID(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return map;
+    }
+
+    /**
+     * Encode the set of names.
+     */
+    static byte[] encodeSet(Set<String> set) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SET_MAGIC);
+            out.writeByte(VERSION);
+            writeVarInt(out, set.size());
+            for (String name : set) {
+                writeString(out, name);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a set of names, in either format.
+     * The set gets the same capacity as java serialization gives it,
+     * so it iterates in the same order.
+     */
+    @SuppressWarnings("unchecked")
+    static HashSet<String> decodeSet(byte[] bytes) {
+        if (isSerialized(bytes)) {
+            return deserialize(bytes, HashSet.class);
+        }
+        if (bytes.length == 0) {
+            return new HashSet<>();
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            checkHeader(in, SET_MAGIC, VERSION);
+            int count = readVarInt(in);
+            HashSet<String> set = new HashSet<>(Math.max((int) (count / .75f) + 1, 16));
+            for (int i = 0; i < count; i++) {
+                set.add(readString(in));
+            }
+            return set;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Read the magic number and the version, and check them, return the version.
+     */
+    static int checkHeader(DataInput in, int magic, int maxVersion) throws IOException {
+        if (in.readInt() != magic) {
+            throw error("Unknown gitlet file format.");
+        }
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > maxVersion) {
+            throw error("Unsupported gitlet file version %d.", version);
+        }
+        return version;
+    }
+
+    /**
+     * Write a string as its UTF-8 length and bytes.
+     */
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by writeString.
+     */
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a full sha1 id as 20 raw bytes.
+     */
+    static void writeID(DataOutput out, String id) throws IOException {
+        if (!MyUtils.isFullID(id)) {
+            throw error("Not a sha1 id: %s.", id);
+        }
+        out.write(MyUtils.idToBytes(id));
+    }
+
+    /**
+     * Read an id written by writeID.
+     */
+    static String readID(DataInput in) throws IOException {
+        byte[] bytes = new byte[UID_LENGTH / 2];
+        in.readFully(bytes);
+        return MyUtils.bytesToID(bytes);
+    }
+
+    /**
+     * Write a non-negative int in 7 bits groups, low group first.
+     */
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Read an int written by writeVarInt.
+     */
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * Content defined chunking of the large files, like FastCDC.
+ * A large file is cut into chunks where a rolling gear hash of the last bytes hits a mask,
+ * so the cut points depend on the content only, and an edit in the middle of the file only
+ * changes the chunks around it. Every chunk is stored once as a CHUNK object by its sha1 hash,
+ * shared by all the files and versions having it.
+ * <p>
+ * The blob of a large file is a manifest, the list of its chunks:
+ * MAGIC | VERSION | file length | count | (chunk id (20 bytes) | chunk length) * count
+ * The blob is still named by the sha1 hash of the whole file, so the commits and trees
+ * don't know whether a blob is chunked.
+ * <p>
+ * The chunks are between MIN_SIZE and MAX_SIZE, AVERAGE_SIZE on average. Before the average
+ * size a cut needs more bits of the hash to be zero, after it fewer, so the sizes of the chunks
+ * are close to the average, the normalized chunking of FastCDC.
+ *
+ * @author GreyQian
+ */
+class Chunker {
+    /**
+     * The magic bytes at the beginning of a manifest.
+     */
+    private static final byte[] MAGIC = {0, 'G', 'C', 'M'};
+    /**
+     * The version of the manifest format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The min size of a chunk.
+     */
+    private static final int MIN_SIZE = 16 * 1024;
+    /**
+     * The average size of a chunk.
+     */
+    private static final int AVERAGE_SIZE = 64 * 1024;
+    /**
+     * The max size of a chunk.
+     */
+    private static final int MAX_SIZE = 256 * 1024;
+    /**
+     * The mask used before the average size, 18 bits.
+     */
+    private static final long MASK_SMALL = 0x8a9860dfc8000000L;
+    /**
+     * The mask used after the average size, 14 bits.
+     */
+    private static final long MASK_LARGE = 0x03182fd050000000L;
+    /**
+     * The random value of every byte in the gear hash, the same in every run.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Save the file as chunks and a manifest, and return the hash of the whole file.
+     * The file is read once, through the chunker and the sha1 digest of the file,
+     * only one chunk is in memory at a time.
+     */
+    static String save(ObjectStore store, File file) {
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        String hash;
+        try (InputStream in = new FileInputStream(file);
+             DataOutputStream out = new DataOutputStream(manifest)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            List<String> ids = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            long fileLength = 0;
+            byte[] buffer = new byte[MAX_SIZE];
+            int filled = 0;
+            while (true) {
+                filled += in.readNBytes(buffer, filled, MAX_SIZE - filled);
+                if (filled == 0) {
+                    break;
+                }
+                int length = cut(buffer, filled);
+                md.update(buffer, 0, length);
+                byte[] content = Arrays.copyOf(buffer, length);
+                String id = sha1(content);
+                if (!store.contains(ObjectStore.Type.CHUNK, id)) {
+                    store.write(ObjectStore.Type.CHUNK, id, content);
+                }
+                ids.add(id);
+                lengths.add(length);
+                fileLength += length;
+                // the rest of the buffer is the beginning of the next chunk
+                System.arraycopy(buffer, length, buffer, 0, filled - length);
+                filled -= length;
+            }
+            hash = MyUtils.bytesToID(md.digest());
+
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(fileLength);
+            BinaryFormat.writeVarInt(out, ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                BinaryFormat.writeID(out, ids.get(i));
+                BinaryFormat.writeVarInt(out, lengths.get(i));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+        if (!store.contains(ObjectStore.Type.BLOB, hash)) {
+            store.write(ObjectStore.Type.BLOB, hash, manifest.toByteArray());
+        }
+        return hash;
+    }
+
+    /**
+     * Helper function for find the end of the chunk at the beginning of the buffer, which has
+     * LENGTH bytes, all the rest of the file if it's shorter than MAX_SIZE.
+     * The first MIN_SIZE bytes are never a cut point, so they are not hashed.
+     */
+    private static int cut(byte[] buffer, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        long fingerprint = 0;
+        int normal = Math.min(length, AVERAGE_SIZE);
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buffer[i] & 0xff];
+            if ((fingerprint & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < length; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buffer[i] & 0xff];
+            if ((fingerprint & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Check weather the stored blob with the hash is a manifest.
+     * A full blob which happens to start with the magic bytes still hashes to its own name.
+     */
+    static boolean isManifest(byte[] stored, String hash) {
+        if (stored.length < MAGIC.length || !Arrays.equals(stored, 0, MAGIC.length,
+                MAGIC, 0, MAGIC.length)) {
+            return false;
+        }
+        return !sha1(stored).equals(hash);
+    }
+
+    /**
+     * Check weather the stored blob may be a manifest by its first bytes, without reading all of it.
+     */
+    static boolean mayBeManifest(ObjectStore store, String hash) {
+        byte[] head = store.readHead(ObjectStore.Type.BLOB, hash, MAGIC.length);
+        return Arrays.equals(head, MAGIC);
+    }
+
+    /**
+     * Get the ids of the chunks of the manifest, in the order of the file.
+     */
+    static List<String> chunkIDs(byte[] manifest) {
+        List<String> ids = new ArrayList<>();
+        try (DataInputStream in = open(manifest)) {
+            in.readLong();
+            int count = BinaryFormat.readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                ids.add(BinaryFormat.readID(in));
+                BinaryFormat.readVarInt(in);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return ids;
+    }
+
+    /**
+     * Rebuild the whole file of the manifest in memory.
+     */
+    static byte[] assemble(ObjectStore store, byte[] manifest) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (String id : chunkIDs(manifest)) {
+            content.writeBytes(readChunk(store, id));
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Write the whole file of the manifest to the channel, chunk by chunk with transferTo.
+     */
+    static void transferTo(ObjectStore store, byte[] manifest, FileChannel out) throws IOException {
+        for (String id : chunkIDs(manifest)) {
+            store.transferTo(ObjectStore.Type.CHUNK, id, out);
+        }
+    }
+
+    /**
+     * Helper function for read a chunk.
+     */
+    private static byte[] readChunk(ObjectStore store, String id) {
+        byte[] content = store.read(ObjectStore.Type.CHUNK, id);
+        if (content == null) {
+            throw error("Missing chunk %s.", id);
+        }
+        return content;
+    }
+
+    /**
+     * Helper function for open the manifest after its magic bytes and version.
+     */
+    private static DataInputStream open(byte[] manifest) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(manifest));
+        in.skipNBytes(MAGIC.length);
+        int version = in.readUnsignedByte();
+        if (version > VERSION) {
+            throw error("Unknown manifest version %d.", version);
+        }
+        return in;
+    }
+}
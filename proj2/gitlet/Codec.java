@@ -0,0 +1,251 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compression of the loose objects.
+ * The codec is the compression setting of the config, none by default, see ObjectStore.
+ * The objects are not compressed unless it's set, since only an uncompressed loose blob
+ * can be copied by transferTo or linked on checkout, see MyUtils.writeBlobFile.
+ * Another codec is added by register, it only needs an id and the two ways of the bytes.
+ * <p>
+ * A compressed object starts with a header:
+ * MAGIC | codec id | content length | compressed bytes
+ * An object without the header is stored as it is, like all the objects written before the
+ * compression or with the none codec, and the objects that the codec can't make smaller.
+ * A content which starts with MAGIC itself is never stored as it is, whatever the codec,
+ * it's stored behind the header of none, the id 0, so any stored object that starts with
+ * MAGIC has a real header and is decoded by the codec the header names.
+ *
+ * @author GreyQian
+ */
+abstract class Codec {
+    /**
+     * The magic bytes at the beginning of a compressed object.
+     */
+    private static final byte[] MAGIC = {0, 'G', 'Z'};
+    /**
+     * The length of the header.
+     */
+    static final int HEADER = MAGIC.length + 1 + 4;
+
+    /**
+     * The codecs by their names.
+     */
+    private static final Map<String, Codec> BY_NAME = new LinkedHashMap<>();
+    /**
+     * The codecs by their ids.
+     */
+    private static final Map<Byte, Codec> BY_ID = new HashMap<>();
+
+    /**
+     * The codec which doesn't compress, objects are written without the header,
+     * except the ones start with MAGIC.
+     */
+    static final Codec NONE = new Codec("none", 0) {
+        @Override
+        protected byte[] compress(byte[] content) {
+            return content;
+        }
+
+        @Override
+        protected byte[] decompress(byte[] compressed, int offset, int length) {
+            return Arrays.copyOfRange(compressed, offset, compressed.length);
+        }
+    };
+
+    static {
+        register(NONE);
+        register(new DeflateCodec("deflate", 1, Deflater.DEFAULT_COMPRESSION));
+        register(new DeflateCodec("deflate-fast", 2, Deflater.BEST_SPEED));
+    }
+
+    /**
+     * The name of the codec in the config.
+     */
+    private final String name;
+    /**
+     * The id of the codec in the header.
+     */
+    private final byte id;
+
+    Codec(String name, int id) {
+        this.name = name;
+        this.id = (byte) id;
+    }
+
+    /**
+     * Add a codec, so it can be set in the config and its objects can be read.
+     */
+    static synchronized void register(Codec codec) {
+        BY_NAME.put(codec.name, codec);
+        BY_ID.put(codec.id, codec);
+    }
+
+    /**
+     * Get the codec given its name, null if there isn't one.
+     */
+    static synchronized Codec of(String name) {
+        return BY_NAME.get(name);
+    }
+
+    /**
+     * Get all the codecs, in the order they are registered.
+     */
+    static synchronized List<Codec> all() {
+        return new ArrayList<>(BY_NAME.values());
+    }
+
+    /**
+     * Get the codec set by compression in the config, none if it's not set or unknown.
+     */
+    static Codec configured() {
+        Codec codec = of(Config.get("compression", "none"));
+        return codec != null ? codec : NONE;
+    }
+
+    /**
+     * Get the name of the codec.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Encode the content of an object to be stored.
+     * The content is stored as it is if the codec doesn't make it smaller,
+     * unless it starts with MAGIC, then it's stored behind the header of none.
+     */
+    byte[] encode(byte[] content) {
+        if (this != NONE) {
+            byte[] compressed = compress(content);
+            if (HEADER + compressed.length < content.length) {
+                return withHeader(id, content.length, compressed);
+            }
+        }
+        if (hasHeader(content)) {
+            return withHeader(NONE.id, content.length, content);
+        }
+        return content;
+    }
+
+    /**
+     * Helper function for put the header in front of the bytes.
+     */
+    private static byte[] withHeader(byte id, int length, byte[] bytes) {
+        ByteBuffer stored = ByteBuffer.allocate(HEADER + bytes.length);
+        stored.put(MAGIC).put(id).putInt(length).put(bytes);
+        return stored.array();
+    }
+
+    /**
+     * Decode a stored object, with any codec.
+     * An object written before the header of none, which has MAGIC by chance
+     * and doesn't decode to its length, is read as it is.
+     */
+    static byte[] decode(byte[] stored) {
+        if (!hasHeader(stored)) {
+            return stored;
+        }
+        Codec codec;
+        synchronized (Codec.class) {
+            codec = BY_ID.get(stored[MAGIC.length]);
+        }
+        if (codec == null) {
+            return stored;
+        }
+        int length = ByteBuffer.wrap(stored, MAGIC.length + 1, 4).getInt();
+        try {
+            byte[] content = codec.decompress(stored, HEADER, length);
+            return content.length == length ? content : stored;
+        } catch (DataFormatException | RuntimeException excp) {
+            return stored;
+        }
+    }
+
+    /**
+     * Check weather the first bytes of a stored object are the header of a compressed object.
+     */
+    static boolean hasHeader(byte[] head) {
+        return head.length >= HEADER
+                && Arrays.equals(head, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * Compress the content.
+     */
+    protected abstract byte[] compress(byte[] content);
+
+    /**
+     * Decompress the bytes from the offset, the content has the given length.
+     */
+    protected abstract byte[] decompress(byte[] compressed, int offset, int length)
+            throws DataFormatException;
+
+    /**
+     * The codec of java.util.zip, the zlib format, which checks the content with adler32.
+     */
+    private static class DeflateCodec extends Codec {
+        /**
+         * The compression level.
+         */
+        private final int level;
+
+        DeflateCodec(String name, int id, int level) {
+            super(name, id);
+            this.level = level;
+        }
+
+        @Override
+        protected byte[] compress(byte[] content) {
+            Deflater deflater = new Deflater(level);
+            try {
+                deflater.setInput(content);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        protected byte[] decompress(byte[] compressed, int offset, int length)
+                throws DataFormatException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed, offset, compressed.length - offset);
+                byte[] content = new byte[length];
+                int n = 0;
+                while (!inflater.finished()) {
+                    // past the length only the end of the stream may be left
+                    int read = n < length ? inflater.inflate(content, n, length - n)
+                            : inflater.inflate(new byte[1]);
+                    if (n >= length && read > 0) {
+                        throw new DataFormatException("Longer than the length.");
+                    }
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new DataFormatException("Incomplete stream.");
+                    }
+                    n += read;
+                }
+                if (n != length) {
+                    throw new DataFormatException("Shorter than the length.");
+                }
+                return content;
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/**
+ * Compare the codecs of the loose objects on text and binary corpora.
+ * Usage: java gitlet.CodecBenchmark [rounds] [file or folder...]
+ * The corpora are a source-like text, a table of numbers, random bytes which don't compress,
+ * and the plain files given, every file of a folder. The benchmark reports the compression ratio
+ * and the throughput of encoding and decoding, in MB of content per second, for every codec.
+ *
+ * @author GreyQian
+ */
+public class CodecBenchmark {
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        Random random = new Random(61);
+        Map<String, List<byte[]>> corpora = new LinkedHashMap<>();
+        corpora.put("text", textCorpus(random));
+        corpora.put("binary", binaryCorpus(random));
+        corpora.put("random", randomCorpus(random));
+        List<byte[]> files = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            addFiles(new File(args[i]), files);
+        }
+        if (!files.isEmpty()) {
+            corpora.put("files", files);
+        }
+
+        System.out.printf("%-8s %-13s %10s %8s %14s %14s%n", "corpus", "codec",
+                "bytes", "ratio", "encode (MB/s)", "decode (MB/s)");
+        for (Map.Entry<String, List<byte[]>> corpus : corpora.entrySet()) {
+            for (Codec codec : Codec.all()) {
+                run(corpus.getKey(), corpus.getValue(), codec, rounds);
+            }
+        }
+    }
+
+    /**
+     * Encode and decode the corpus with the codec ROUNDS times, and print the results.
+     */
+    private static void run(String name, List<byte[]> corpus, Codec codec, int rounds) {
+        long bytes = 0;
+        List<byte[]> stored = new ArrayList<>();
+        for (byte[] content : corpus) {
+            bytes += content.length;
+            stored.add(codec.encode(content));
+        }
+        long storedBytes = 0;
+        for (byte[] object : stored) {
+            storedBytes += object.length;
+        }
+        // warm up before timing
+        encodeAll(corpus, codec, Math.max(1, rounds / 10));
+        decodeAll(stored, Math.max(1, rounds / 10));
+
+        double encode = encodeAll(corpus, codec, rounds);
+        double decode = decodeAll(stored, rounds);
+        double megabytes = bytes * (double) rounds / (1 << 20);
+        System.out.printf("%-8s %-13s %10d %8.2f %14.1f %14.1f%n", name, codec.getName(),
+                bytes, (double) bytes / storedBytes, megabytes / encode, megabytes / decode);
+    }
+
+    /**
+     * Encode every content ROUNDS times, returns the seconds it took.
+     */
+    private static double encodeAll(List<byte[]> corpus, Codec codec, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] content : corpus) {
+                codec.encode(content);
+            }
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /**
+     * Decode every stored object ROUNDS times, returns the seconds it took.
+     */
+    private static double decodeAll(List<byte[]> stored, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] object : stored) {
+                Codec.decode(object);
+            }
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /**
+     * Returns source-like text files, lines of words and numbers with indents.
+     */
+    private static List<byte[]> textCorpus(Random random) {
+        String[] words = {"public", "static", "void", "return", "final", "String", "int",
+            "if", "else", "for", "new", "null", "this", "file", "commit", "branch", "the", "of"};
+        List<byte[]> files = new ArrayList<>();
+        for (int f = 0; f < 64; f++) {
+            StringBuilder sb = new StringBuilder();
+            int lines = 200 + random.nextInt(800);
+            for (int i = 0; i < lines; i++) {
+                sb.append("    ".repeat(random.nextInt(4)));
+                int count = 2 + random.nextInt(8);
+                for (int w = 0; w < count; w++) {
+                    sb.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                sb.append(random.nextInt(1000)).append(";\n");
+            }
+            files.add(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return files;
+    }
+
+    /**
+     * Returns binary files, tables of records of slowly changing ints and longs.
+     */
+    private static List<byte[]> binaryCorpus(Random random) {
+        List<byte[]> files = new ArrayList<>();
+        for (int f = 0; f < 16; f++) {
+            int records = 4096 + random.nextInt(4096);
+            ByteBuffer buffer = ByteBuffer.allocate(records * 16);
+            long time = 1_700_000_000_000L;
+            for (int i = 0; i < records; i++) {
+                time += random.nextInt(1000);
+                buffer.putLong(time).putInt(i).putInt(random.nextInt(256));
+            }
+            files.add(buffer.array());
+        }
+        return files;
+    }
+
+    /**
+     * Returns random files, which no codec can make smaller.
+     */
+    private static List<byte[]> randomCorpus(Random random) {
+        List<byte[]> files = new ArrayList<>();
+        for (int f = 0; f < 16; f++) {
+            byte[] content = new byte[32 * 1024 + random.nextInt(32 * 1024)];
+            random.nextBytes(content);
+            files.add(content);
+        }
+        return files;
+    }
+
+    /**
+     * Add the content of the plain file, or of every plain file under the folder.
+     */
+    private static void addFiles(File file, List<byte[]> files) {
+        if (file.isFile()) {
+            files.add(readContents(file));
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                addFiles(child, files);
+            }
+        }
+    }
+}
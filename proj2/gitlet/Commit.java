@@ -1,8 +1,7 @@
 package gitlet;
 
 
-import java.io.File;
-import java.io.Serializable;
+import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -15,6 +14,11 @@ import static gitlet.Utils.*;
  * @author GreyQian
  */
 public class Commit implements Serializable {
+    /**
+     * The serial version of the commits written by java serialization,
+     * fixed so they can still be read after the methods of the class changed.
+     */
+    private static final long serialVersionUID = 208386486449428792L;
     /**
      *
      * List all instance variables of the Commit class here with a useful
@@ -37,12 +41,36 @@ public class Commit implements Serializable {
     private String otherParentID = null;
     /**
      * The content this commit hava.
+     * Stored in the commit only by the old formats, for the other commits it's loaded from
+     * the root tree when first needed.
      */
     private TreeMap<String, String> trackedMaps;
+    /**
+     * The hash of the root tree of this commit, before the commit is saved it's the parent's
+     * root tree. Null for the commits of the old formats until their tree is made.
+     */
+    private String treeID = null;
+    /**
+     * Weather the commit is of the tree format, its id is computed from the root tree.
+     * The commits of the old formats keep their ids computed from the tracked maps.
+     */
+    private transient boolean treeFormat = false;
+    /**
+     * The changes to the parent's files not saved yet, file name to hash, null for removed.
+     */
+    private transient TreeMap<String, String> changes = new TreeMap<>();
     /**
      * The first commit's parent .
      */
     public static final String FIRSTCOMMITPID = "commit-1";
+    /**
+     * The magic number of the binary commit format, "GCMT".
+     */
+    private static final int MAGIC = 0x47434d54;
+    /**
+     * The version of the binary commit format.
+     */
+    private static final int VERSION = 2;
 
 
     // Constructor
@@ -53,19 +81,21 @@ public class Commit implements Serializable {
     public Commit() {
         message = "initial commit";
         directParentID = FIRSTCOMMITPID;
-        trackedMaps = new TreeMap<>();
         timestamp = new Date(0);
+        treeFormat = true;
     }
 
+    /**
+     * A new commit, it starts with the parent's root tree, which is shared not copied.
+     */
     public Commit(String message, String parentId) {
         this.message = message;
         this.directParentID = parentId;
         this.timestamp = new Date();
+        this.treeFormat = true;
         Commit directParentCommit = getCommit(parentId);
         if (directParentCommit != null) {
-            this.trackedMaps = directParentCommit.trackedMaps;
-        } else {
-            this.trackedMaps = new TreeMap<>();
+            this.treeID = directParentCommit.getTreeID();
         }
     }
 
@@ -79,111 +109,227 @@ public class Commit implements Serializable {
         return message;
     }
 
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
     /**
      * Get the Tracked File maps.
+     * For a commit of the tree format all the trees are read the first time,
+     * use getTrackedFileHash or isTrackedFile for a single file.
      */
     public Map<String, String> getTrackedFilesMap() {
+        if (trackedMaps == null) {
+            trackedMaps = new TreeMap<>(Tree.flatten(treeID));
+            applyChanges(trackedMaps);
+        }
         return trackedMaps;
     }
 
     /**
-     * Set the second parent id.
+     * Check weather the commit is of the tree format, its files are in its root tree,
+     * otherwise they are in its tracked maps.
      */
-    public void setOtherParentID(String otherParentID) {
-        this.otherParentID = otherParentID;
+    boolean isTreeFormat() {
+        return treeFormat;
     }
 
     /**
-     * Get all parents commits, alone the commit tree, not include itself.
+     * Get the hash of the root tree, for a commit of the old formats the trees
+     * are made from its tracked maps.
      */
-    public Queue<String> getAllCommitsIDs(String selfCommitID) {
-        Queue<String> commitsIDs = new LinkedList<>();
-        Queue<String> commitsIDQueue = new LinkedList<>();
-        commitsIDQueue.add(selfCommitID);
-        while (!commitsIDQueue.isEmpty()) {
-            String commitID = commitsIDQueue.poll();
-            if (!commitID.equals(FIRSTCOMMITPID)) {
-                if (!commitsIDs.contains(commitID)) {
-                    commitsIDs.add(commitID);
-                }
-                Commit newCommit = getCommit(commitID);
-                if (newCommit != null) {
-                    Set<String> ids = newCommit.getAllParentsIDs();
-                    for (String id : ids) {
-                        commitsIDQueue.add(id);
-                    }
-                }
-            }
+    public String getTreeID() {
+        if (treeID == null && !treeFormat) {
+            treeID = Tree.update(null, trackedMaps);
         }
-
-        return commitsIDs;
+        return treeID;
     }
 
     /**
-     * Get all parents id.
+     * Get the hash of the file in this commit, null if the commit doesn't track it.
+     * Only the trees on the file's path are read.
      */
-    private Set<String> getAllParentsIDs() {
-        Set<String> parentsIDs = new HashSet<>();
-        parentsIDs.add(directParentID);
-        if (otherParentID != null) {
-            parentsIDs.add(otherParentID);
+    public String getTrackedFileHash(String fileName) {
+        if (trackedMaps != null) {
+            return trackedMaps.get(fileName);
+        }
+        if (changes.containsKey(fileName)) {
+            return changes.get(fileName);
         }
-        return parentsIDs;
+        return Tree.lookup(treeID, fileName);
+    }
+
+    /**
+     * Get the second parent id, null if this commit is not a merge commit.
+     */
+    public String getOtherParentID() {
+        return otherParentID;
+    }
+
+    /**
+     * Set the second parent id.
+     */
+    public void setOtherParentID(String otherParentID) {
+        this.otherParentID = otherParentID;
     }
 
     // Some useful function
 
     /**
      * Get the commit based its id.
+     * All the commit reads go through the commit cache, a commit is read from the store
+     * only if it's not cached.
      */
     public static Commit getCommit(String commitID) {
-        File commitFile = join(Repository.COMMITS, commitID);
-        if (commitFile != null && commitFile.exists()) {
-            return readObject(commitFile, Commit.class);
+        Commit commit = CommitCache.get(commitID);
+        if (commit != null) {
+            return commit;
+        }
+        byte[] content = Repository.OBJECTS.read(ObjectStore.Type.COMMIT, commitID);
+        if (content != null) {
+            commit = fromBytes(content);
+            CommitCache.put(commitID, commit);
         }
-        return null;
+        return commit;
     }
 
     /**
      * Save the commit and return the commit id.
      */
     public String saveCommit() {
+        treeID = Tree.update(treeID, changes);
+        changes.clear();
         String commitID = getCommitID();
-        File commitFile = join(Repository.COMMITS, commitID);
-        MyUtils.createFile(commitFile);
-        writeObject(commitFile, this);
+        Repository.OBJECTS.write(ObjectStore.Type.COMMIT, commitID, toBytes());
+        CommitCache.put(commitID, this);
+        CommitGraph.add(commitID, directParentID, otherParentID);
+        CommitIndex.add(commitID);
+        MessageIndex.add(message, commitID);
         return commitID;
     }
 
+    /**
+     * Encode the saved commit in the binary commit format:
+     * MAGIC | VERSION | message | timestamp | parent count | parent ids | root tree
+     * The initial commit has no parent, see BinaryFormat for how the fields are written.
+     * The version 1 had file count | (name | hash) * count in place of the root tree.
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            BinaryFormat.writeString(out, message);
+            out.writeLong(timestamp.getTime());
+            if (isInitCommit()) {
+                out.writeByte(0);
+            } else {
+                out.writeByte(otherParentID == null ? 1 : 2);
+                BinaryFormat.writeID(out, directParentID);
+                if (otherParentID != null) {
+                    BinaryFormat.writeID(out, otherParentID);
+                }
+            }
+            BinaryFormat.writeID(out, getTreeID());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a commit, in the binary commit format or written by java serialization.
+     */
+    static Commit fromBytes(byte[] content) {
+        Commit commit;
+        if (BinaryFormat.isSerialized(content)) {
+            commit = deserialize(content, Commit.class);
+            commit.changes = new TreeMap<>();
+            return commit;
+        }
+        commit = new Commit();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(content))) {
+            int version = BinaryFormat.checkHeader(in, MAGIC, VERSION);
+            commit.message = BinaryFormat.readString(in);
+            commit.timestamp = new Date(in.readLong());
+            int parents = in.readUnsignedByte();
+            if (parents > 0) {
+                commit.directParentID = BinaryFormat.readID(in);
+            }
+            if (parents > 1) {
+                commit.otherParentID = BinaryFormat.readID(in);
+            }
+            if (version == 1) {
+                commit.treeFormat = false;
+                commit.trackedMaps = new TreeMap<>();
+                int count = BinaryFormat.readVarInt(in);
+                for (int i = 0; i < count; i++) {
+                    String fileName = BinaryFormat.readString(in);
+                    commit.trackedMaps.put(fileName, BinaryFormat.readID(in));
+                }
+            } else {
+                commit.treeID = BinaryFormat.readID(in);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return commit;
+    }
+
     /**
      * Get the commit sha1 id.
+     * The id of a commit of the tree format is computed from its root tree and both parents,
+     * the commits of the old formats keep the ids computed from their tracked maps.
      */
     public String getCommitID() {
-        return sha1(message, timestamp.toString(), directParentID, trackedMaps.toString());
+        if (!treeFormat) {
+            return sha1(message, timestamp.toString(), directParentID, trackedMaps.toString());
+        }
+        return sha1(message, Long.toString(timestamp.getTime()), directParentID,
+                otherParentID == null ? "" : otherParentID, treeID);
     }
 
     /**
-     * Check in the commit weather has a file that as same as the given file.
-     * Use file hashCode to compare weather the content is same
+     * Check in the commit weather has a file that as same as the working file with the name.
+     * Use file hashCode to compare weather the content is same,
+     * the hash comes from the stat index, the file is hashed only if it changed.
      */
-    public boolean isSameFile(String fileName, File file) {
-        if (!trackedMaps.containsKey(fileName)) {
+    public boolean isSameFile(String fileName) {
+        String trackedHash = getTrackedFileHash(fileName);
+        if (trackedHash == null) {
             return false;
         }
-        String fileHash = MyUtils.getFileHash(file);
-        return fileHash.equals(trackedMaps.get(fileName));
+        String fileHash = StatIndex.getFileHash(fileName);
+        return fileHash.equals(trackedHash);
     }
 
     /**
      * Update the track file map based the stage add and removal.
+     * The changes are kept until the commit is saved, then only the trees on their paths are written.
      */
     public void updateTrackMaps(Map<String, String> add, Set<String> remove) {
         for (Map.Entry<String, String> entry : add.entrySet()) {
-            trackedMaps.put(entry.getKey(), entry.getValue());
+            changes.put(entry.getKey(), entry.getValue());
         }
 
         for (String fileName : remove) {
-            trackedMaps.remove(fileName);
+            changes.put(fileName, null);
+        }
+        if (trackedMaps != null) {
+            applyChanges(trackedMaps);
+        }
+    }
+
+    /**
+     * Helper function for apply the changes not saved yet to the files.
+     */
+    private void applyChanges(Map<String, String> files) {
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                files.remove(entry.getKey());
+            } else {
+                files.put(entry.getKey(), entry.getValue());
+            }
         }
     }
 
@@ -191,7 +337,7 @@ public class Commit implements Serializable {
      * Check weather this commit tracked the file.
      */
     public boolean isTrackedFile(String fileName) {
-        return trackedMaps.containsKey(fileName);
+        return getTrackedFileHash(fileName) != null;
     }
 
     /**
@@ -233,10 +379,11 @@ public class Commit implements Serializable {
      * Get the file hash given its name, if the file doesn't exist in this commit print error message.
      */
     public String getFileHash(String fileName) {
-        if (!trackedMaps.containsKey(fileName)) {
+        String fileHash = getTrackedFileHash(fileName);
+        if (fileHash == null) {
             MyUtils.exit("File does not exist in that commit.");
         }
-        return trackedMaps.get(fileName);
+        return fileHash;
     }
 
     /**
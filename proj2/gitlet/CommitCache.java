@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the commits read in this process, keyed by commit id.
+ * When it's full the least recently used commit is dropped.
+ * The size is the commitCache setting, 1024 commits by default.
+ * The commits in the cache are shared, so a commit must not be changed after it's saved.
+ *
+ * @author GreyQian
+ */
+class CommitCache {
+    /**
+     * The max number of commits in the cache.
+     */
+    private static final int CAPACITY = Math.max(1, Config.getInt("commitCache", 1024));
+
+    /**
+     * The cached commits, in the order of use.
+     */
+    private static final Map<String, Commit> COMMITS =
+        new LinkedHashMap<String, Commit>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                return size() > CAPACITY;
+            }
+        };
+
+    /**
+     * The number of reads found in the cache.
+     */
+    private static long hits = 0;
+    /**
+     * The number of reads not found in the cache.
+     */
+    private static long misses = 0;
+
+    /**
+     * Get the cached commit, null if it's not cached.
+     */
+    static synchronized Commit get(String commitID) {
+        Commit commit = COMMITS.get(commitID);
+        if (commit != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return commit;
+    }
+
+    /**
+     * Put the commit in the cache.
+     */
+    static synchronized void put(String commitID, Commit commit) {
+        COMMITS.put(commitID, commit);
+    }
+
+    /**
+     * Drop all the cached commits.
+     */
+    static synchronized void clear() {
+        COMMITS.clear();
+    }
+
+    static synchronized long getHits() {
+        return hits;
+    }
+
+    static synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The cache statistics, for example: commit cache: 12 hits, 3 misses, 3/1024 commits.
+     */
+    static synchronized String stats() {
+        return String.format("commit cache: %d hits, %d misses, %d/%d commits",
+                hits, misses, COMMITS.size(), CAPACITY);
+    }
+}
@@ -0,0 +1,377 @@
+package gitlet;
+
+import java.io.*;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * The commit graph of the repository, the parents and the generation number of every commit.
+ * The generation number of the initial commit is 1, of any other commit is one more than
+ * the largest generation of its parents, so a commit's ancestors always have smaller generations.
+ * With the graph, the split point of two commits is found without reading any commit.
+ * <p>
+ * The file format, the records are appended as the commits are saved:
+ * MAGIC | VERSION | (id | first parent | second parent | generation) * n
+ * The parents are the record numbers of the parents, -1 if there isn't one.
+ * If the file doesn't exist, it's built from all the commits in the object store.
+ *
+ * @author GreyQian
+ */
+class CommitGraph {
+    /**
+     * The file that store the commit graph.
+     */
+    static final File GRAPH = join(Repository.GITLET_DIR, "CommitGraph");
+    /**
+     * The magic number at the beginning of the file, "GCGR".
+     */
+    private static final int MAGIC = 0x47434752;
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The mark of the commits reached from the first commit of the split point search.
+     */
+    private static final byte FIRST = 1;
+    /**
+     * The mark of the commits reached from the second commit.
+     */
+    private static final byte SECOND = 2;
+
+    /**
+     * The commit ids, by record number.
+     */
+    private static List<String> ids = null;
+    /**
+     * The record number of every commit id.
+     */
+    private static Map<String, Integer> numbers;
+    /**
+     * The first parents, by record number.
+     */
+    private static int[] firstParents;
+    /**
+     * The second parents, by record number.
+     */
+    private static int[] secondParents;
+    /**
+     * The generation numbers, by record number.
+     */
+    private static int[] generations;
+    /**
+     * The length of the file that is loaded, the graph is loaded again if the file
+     * is appended by another process.
+     */
+    private static long loadedLength = 0;
+
+    /**
+     * Add a saved commit to the graph, if it isn't there.
+     * The parents must be in the graph already, they always are since they are saved before.
+     */
+    static void add(String commitID, String firstParent, String secondParent) {
+        load();
+        if (numbers.containsKey(commitID)) {
+            return;
+        }
+        int number = append(commitID, firstParent, secondParent);
+        appendRecords(number);
+    }
+
+    /**
+     * Append the new commits of another repository to its graph, the parents before
+     * their children, like after a push. The records of the graph are read to number
+     * the parents, the commits are read from this repository which sent them.
+     * Nothing is done if the graph doesn't exist, it's built with the commits when it's used.
+     * If a parent isn't in the graph, the graph is removed and built again when it's used.
+     */
+    static void appendTo(File gitletDir, List<String> commitIDs) {
+        File graph = join(gitletDir, GRAPH.getName());
+        if (!graph.isFile()) {
+            return;
+        }
+        Map<String, Integer> graphNumbers = new HashMap<>();
+        List<Integer> graphGenerations = new ArrayList<>();
+        byte[] id = new byte[20];
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(graph)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Bad commit graph.");
+            }
+            while (in.available() > 0) {
+                in.readFully(id);
+                in.readInt();
+                in.readInt();
+                graphNumbers.put(MyUtils.bytesToID(id), graphGenerations.size());
+                graphGenerations.add(in.readInt());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(records)) {
+            for (String commitID : commitIDs) {
+                Commit commit = Commit.getCommit(commitID);
+                String[] parentIDs = {commit.getDirectParentID(), commit.getOtherParentID()};
+                int[] parents = new int[2];
+                int generation = 1;
+                for (int i = 0; i < parents.length; i++) {
+                    parents[i] = -1;
+                    if (!isParent(parentIDs[i])) {
+                        continue;
+                    }
+                    Integer parent = graphNumbers.get(parentIDs[i]);
+                    if (parent == null) {
+                        graph.delete();
+                        return;
+                    }
+                    parents[i] = parent;
+                    generation = Math.max(generation, graphGenerations.get(parent) + 1);
+                }
+                out.write(MyUtils.idToBytes(commitID));
+                out.writeInt(parents[0]);
+                out.writeInt(parents[1]);
+                out.writeInt(generation);
+                graphNumbers.put(commitID, graphGenerations.size());
+                graphGenerations.add(generation);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (FileOutputStream out = new FileOutputStream(graph, true)) {
+            records.writeTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Get the split point of the two commits, the latest common ancestor.
+     * Walk down from both commits in the order of generation, the larger first,
+     * marking every commit with who reached it. Because the ancestors of a commit have
+     * smaller generations, a commit's marks are final when it's taken, and the first
+     * commit taken with both marks is a common ancestor no other common ancestor descends from.
+     * Return null if they don't have one.
+     */
+    static String getSplitPoint(String firstID, String secondID) {
+        load();
+        // a commit saved without the graph is added with its ancestors
+        int size = ids.size();
+        buildFrom(firstID);
+        buildFrom(secondID);
+        appendRecords(size);
+
+        Integer first = numbers.get(firstID);
+        Integer second = numbers.get(secondID);
+        if (first == null || second == null) {
+            return null;
+        }
+
+        byte[] marks = new byte[ids.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) ->
+                generations[a] != generations[b]
+                        ? Integer.compare(generations[b], generations[a])
+                        : Integer.compare(b, a));
+        marks[first] |= FIRST;
+        marks[second] |= SECOND;
+        queue.add(first);
+        if (!first.equals(second)) {
+            queue.add(second);
+        }
+
+        while (!queue.isEmpty()) {
+            int number = queue.poll();
+            if (marks[number] == (FIRST | SECOND)) {
+                return ids.get(number);
+            }
+            for (int parent : new int[]{firstParents[number], secondParents[number]}) {
+                if (parent >= 0 && (marks[parent] | marks[number]) != marks[parent]) {
+                    if (marks[parent] == 0) {
+                        queue.add(parent);
+                    }
+                    marks[parent] |= marks[number];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Build the graph again from the commits in the object store,
+     * like after some commits are removed from it.
+     */
+    static void rebuild() {
+        ids = null;
+        GRAPH.delete();
+        load();
+    }
+
+    /**
+     * Helper function for load the graph, build it if the file doesn't exist.
+     */
+    private static void load() {
+        if (ids != null && GRAPH.length() == loadedLength) {
+            return;
+        }
+        ids = new ArrayList<>();
+        numbers = new HashMap<>();
+        firstParents = new int[16];
+        secondParents = new int[16];
+        generations = new int[16];
+        if (GRAPH.exists()) {
+            read();
+        } else {
+            build();
+        }
+        loadedLength = GRAPH.length();
+    }
+
+    /**
+     * Helper function for read the graph file.
+     */
+    private static void read() {
+        byte[] id = new byte[20];
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(GRAPH)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Bad commit graph.");
+            }
+            while (in.available() > 0) {
+                in.readFully(id);
+                int number = ids.size();
+                grow(number);
+                ids.add(MyUtils.bytesToID(id));
+                numbers.put(ids.get(number), number);
+                firstParents[number] = in.readInt();
+                secondParents[number] = in.readInt();
+                generations[number] = in.readInt();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Helper function for build the graph from all the commits, parents before children,
+     * and write the whole file.
+     */
+    private static void build() {
+        for (String commitID : Repository.OBJECTS.list(ObjectStore.Type.COMMIT)) {
+            buildFrom(commitID);
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(GRAPH)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int number = 0; number < ids.size(); number++) {
+                writeRecord(out, number);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Add the commit and its ancestors not in the graph, parents first.
+     * Use an explicit stack, the history can be deeper than the java stack.
+     */
+    private static void buildFrom(String commitID) {
+        Deque<String> stack = new ArrayDeque<>();
+        Map<String, Commit> commits = new HashMap<>();
+        stack.push(commitID);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (numbers.containsKey(id)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = commits.computeIfAbsent(id, Commit::getCommit);
+            if (commit == null) {
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (String parent : new String[]{commit.getDirectParentID(), commit.getOtherParentID()}) {
+                if (isParent(parent) && !numbers.containsKey(parent)
+                        && Repository.OBJECTS.contains(ObjectStore.Type.COMMIT, parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                append(id, commit.getDirectParentID(), commit.getOtherParentID());
+                commits.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Helper function for add a record in memory, return its record number.
+     */
+    private static int append(String commitID, String firstParent, String secondParent) {
+        int number = ids.size();
+        grow(number);
+        ids.add(commitID);
+        numbers.put(commitID, number);
+        firstParents[number] = isParent(firstParent) ? numbers.getOrDefault(firstParent, -1) : -1;
+        secondParents[number] = isParent(secondParent) ? numbers.getOrDefault(secondParent, -1) : -1;
+        int generation = 1;
+        for (int parent : new int[]{firstParents[number], secondParents[number]}) {
+            if (parent >= 0) {
+                generation = Math.max(generation, generations[parent] + 1);
+            }
+        }
+        generations[number] = generation;
+        return number;
+    }
+
+    /**
+     * Helper function for append the records from the record number to the end to the file.
+     */
+    private static void appendRecords(int from) {
+        if (from == ids.size()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(GRAPH, true)))) {
+            for (int number = from; number < ids.size(); number++) {
+                writeRecord(out, number);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        loadedLength = GRAPH.length();
+    }
+
+    /**
+     * Helper function for write a record.
+     */
+    private static void writeRecord(DataOutputStream out, int number) throws IOException {
+        out.write(MyUtils.idToBytes(ids.get(number)));
+        out.writeInt(firstParents[number]);
+        out.writeInt(secondParents[number]);
+        out.writeInt(generations[number]);
+    }
+
+    /**
+     * Check weather the parent id is a real commit, not null or the initial commit's parent.
+     */
+    private static boolean isParent(String parentID) {
+        return parentID != null && !parentID.equals(Commit.FIRSTCOMMITPID);
+    }
+
+    /**
+     * Helper function for make sure the arrays can hold the record number.
+     */
+    private static void grow(int number) {
+        if (number >= generations.length) {
+            int length = generations.length * 2;
+            firstParents = Arrays.copyOf(firstParents, length);
+            secondParents = Arrays.copyOf(secondParents, length);
+            generations = Arrays.copyOf(generations, length);
+        }
+    }
+}
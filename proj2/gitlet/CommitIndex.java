@@ -0,0 +1,274 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * The sorted index of all the commit ids, used to find the full id of an abbreviated one.
+ * Like the index of a pack file, a fanout table gives the range of the ids starting with
+ * every first byte, and the ids are binary searched in the range, so a lookup reads
+ * O(log n) ids instead of listing every commit.
+ * <p>
+ * The file format:
+ * MAGIC | VERSION | count | fanout[256] | sorted id * count | new id * m
+ * The ids are 20 raw bytes. The ids of the new commits are appended unsorted after the sorted
+ * ones and searched one by one, when there are MAX_NEW of them the whole file is rewritten sorted.
+ * If the file doesn't exist, it's built from all the commits in the object store.
+ *
+ * @author GreyQian
+ */
+class CommitIndex {
+    /**
+     * The file that store the index.
+     */
+    static final File INDEX = join(Repository.GITLET_DIR, "CommitIndex");
+    /**
+     * The magic number at the beginning of the file, "GCID".
+     */
+    private static final int MAGIC = 0x47434944;
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the magic, version, count and the fanout table.
+     */
+    private static final int HEADER = 12 + 256 * 4;
+    /**
+     * The size of an id.
+     */
+    private static final int ID_SIZE = UID_LENGTH / 2;
+    /**
+     * When there are this many new ids, the file is rewritten sorted.
+     */
+    private static final int MAX_NEW = 1024;
+
+    /**
+     * The index file mapped in memory, null if it's not loaded.
+     */
+    private static MappedByteBuffer buffer = null;
+    /**
+     * The number of the sorted ids.
+     */
+    private static int sortedCount;
+    /**
+     * The number of the new ids after the sorted ones.
+     */
+    private static int newCount;
+    /**
+     * The length of the file that is loaded, the index is loaded again if the file is changed.
+     */
+    private static long loadedLength = 0;
+
+    /**
+     * Add a saved commit to the index, if it isn't there.
+     */
+    static void add(String commitID) {
+        load();
+        if (!search(commitID, 1).isEmpty()) {
+            return;
+        }
+        if (newCount >= MAX_NEW) {
+            List<String> ids = allIDs();
+            ids.add(commitID);
+            Collections.sort(ids);
+            write(ids);
+        } else {
+            try (FileOutputStream out = new FileOutputStream(INDEX, true)) {
+                out.write(MyUtils.idToBytes(commitID));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        buffer = null;
+    }
+
+    /**
+     * Append the new commits of another repository to its index, like after a push.
+     * They are new ids after the sorted ones, the index is sorted again by the next add
+     * in that repository. Nothing is done if the index doesn't exist, it's built with
+     * the commits when it's used.
+     */
+    static void appendTo(File gitletDir, List<String> commitIDs) {
+        File index = join(gitletDir, INDEX.getName());
+        if (!index.isFile()) {
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(index, true))) {
+            for (String commitID : commitIDs) {
+                out.write(MyUtils.idToBytes(commitID));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Find the commit ids starting with the lowercase hex prefix, at most LIMIT of them.
+     * A full id not in the index but in the object store means the index is out of date,
+     * then it's rebuilt.
+     */
+    static List<String> find(String prefix, int limit) {
+        load();
+        List<String> ids = search(prefix, limit);
+        if (ids.isEmpty() && MyUtils.isFullID(prefix)
+                && Repository.OBJECTS.contains(ObjectStore.Type.COMMIT, prefix)) {
+            build();
+            ids = search(prefix, limit);
+        }
+        return ids;
+    }
+
+    /**
+     * Helper function for search the sorted ids and then the new ones.
+     */
+    private static List<String> search(String prefix, int limit) {
+        List<String> ids = new ArrayList<>();
+        byte[] low = MyUtils.idToBytes(padEnd(prefix, '0'));
+        byte[] high = MyUtils.idToBytes(padEnd(prefix, 'f'));
+        int from = (low[0] & 0xff) == 0 ? 0 : fanout((low[0] & 0xff) - 1);
+        int to = fanout(high[0] & 0xff);
+
+        // the first id not less than the low bound
+        byte[] record = new byte[ID_SIZE];
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            buffer.get(HEADER + mid * ID_SIZE, record);
+            if (Arrays.compareUnsigned(record, low) < 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        for (int i = from; i < sortedCount && ids.size() < limit; i++) {
+            buffer.get(HEADER + i * ID_SIZE, record);
+            if (Arrays.compareUnsigned(record, high) > 0) {
+                break;
+            }
+            ids.add(MyUtils.bytesToID(record));
+        }
+
+        for (int i = 0; i < newCount && ids.size() < limit; i++) {
+            buffer.get(HEADER + (sortedCount + i) * ID_SIZE, record);
+            if (Arrays.compareUnsigned(record, low) >= 0 && Arrays.compareUnsigned(record, high) <= 0) {
+                ids.add(MyUtils.bytesToID(record));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Helper function for get the number of sorted ids whose first byte is at most the given one.
+     */
+    private static int fanout(int first) {
+        return buffer.getInt(12 + first * 4);
+    }
+
+    /**
+     * Helper function for pad the prefix to a full id.
+     */
+    private static String padEnd(String prefix, char c) {
+        StringBuilder sb = new StringBuilder(UID_LENGTH).append(prefix);
+        while (sb.length() < UID_LENGTH) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Helper function for get all the ids in the index.
+     */
+    private static List<String> allIDs() {
+        List<String> ids = new ArrayList<>();
+        byte[] record = new byte[ID_SIZE];
+        for (int i = 0; i < sortedCount + newCount; i++) {
+            buffer.get(HEADER + i * ID_SIZE, record);
+            ids.add(MyUtils.bytesToID(record));
+        }
+        return ids;
+    }
+
+    /**
+     * Build the index again from the commits in the object store,
+     * like after some commits are removed from it.
+     */
+    static void rebuild() {
+        buffer = null;
+        INDEX.delete();
+        load();
+    }
+
+    /**
+     * Helper function for load the index, build it if the file doesn't exist.
+     */
+    private static void load() {
+        if (buffer != null && INDEX.length() == loadedLength) {
+            return;
+        }
+        if (!INDEX.exists()) {
+            build();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(INDEX.toPath())) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw error("Bad commit index.");
+        }
+        sortedCount = buffer.getInt(8);
+        newCount = (buffer.capacity() - HEADER) / ID_SIZE - sortedCount;
+        loadedLength = buffer.capacity();
+    }
+
+    /**
+     * Helper function for build the index from all the commits in the object store.
+     */
+    private static void build() {
+        List<String> ids = new ArrayList<>();
+        for (String id : Repository.OBJECTS.list(ObjectStore.Type.COMMIT)) {
+            if (MyUtils.isFullID(id)) {
+                ids.add(id);
+            }
+        }
+        write(ids);
+        buffer = null;
+        load();
+    }
+
+    /**
+     * Helper function for write the sorted ids as the whole index.
+     * The file is written aside and moved in, so a reader never sees half of it.
+     */
+    private static void write(List<String> ids) {
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)]++;
+        }
+        for (int i = 1; i < fanout.length; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        File temp = join(Repository.GITLET_DIR, "CommitIndex.tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            for (String id : ids) {
+                out.write(MyUtils.idToBytes(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        MyUtils.moveFile(temp, INDEX);
+    }
+}
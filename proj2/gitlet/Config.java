@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+
+import static gitlet.Utils.*;
+
+/**
+ * The settings of a gitlet repository.
+ * A setting is read from the java system property gitlet.KEY first,
+ * then from the key in the .gitlet/config file, a properties file the user can edit.
+ * For example, threads=4 in the config file or java -Dgitlet.threads=4 gitlet.Main status.
+ *
+ * @author GreyQian
+ */
+class Config {
+    /**
+     * The config file.
+     */
+    static final File CONFIG = join(Repository.GITLET_DIR, "config");
+
+    /**
+     * The settings in the config file, loaded when first needed.
+     */
+    private static Properties properties = null;
+
+    /**
+     * Get the setting of the key, the default value if it's not set.
+     */
+    static String get(String key, String defaultValue) {
+        String value = System.getProperty("gitlet." + key);
+        if (value != null) {
+            return value;
+        }
+        return getProperties().getProperty(key, defaultValue);
+    }
+
+    /**
+     * Get the int setting of the key, the default value if it's not set or not a number.
+     */
+    static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get the boolean setting of the key, the default value if it's not set.
+     */
+    static boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(get(key, String.valueOf(defaultValue)).trim());
+    }
+
+    /**
+     * Helper function for load the config file.
+     */
+    private static Properties getProperties() {
+        if (properties == null) {
+            properties = new Properties();
+            if (CONFIG.isFile()) {
+                try (Reader reader = new FileReader(CONFIG)) {
+                    properties.load(reader);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,274 @@
+package gitlet;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static gitlet.Utils.*;
+
+/**
+ * The gitlet daemon, a long running gitlet that keeps the repository state warm in memory,
+ * the branches and stage maps, the commit cache, the commit graph and the stat index,
+ * and runs the commands sent to it over a unix domain socket in the .gitlet directory.
+ * <p>
+ * Usage:
+ * java gitlet.Main daemon         serve the repository in the current directory
+ * java gitlet.Main daemon stop    stop the daemon
+ * While the daemon is running, java gitlet.Main forwards its arguments to the daemon
+ * and prints what the daemon sends back, then exits with the status the daemon sends,
+ * so the output and the exit status are the same as running the command itself.
+ * <p>
+ * The request is the number of arguments and the arguments. The response is sent while
+ * the command runs, as frames of STDOUT or STDERR, each with the length and the bytes of
+ * a piece of the output, and ends with END and the exit status. The commands are run
+ * one at a time. When the client stops reading, like log piped into head, the command
+ * sees an error on its output as it would on a closed pipe, see LogWriter.
+ * Only the owner of the repository can read and write the socket.
+ *
+ * @author GreyQian
+ */
+class Daemon {
+    /**
+     * The socket file of the daemon.
+     */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+    /**
+     * The socket is bound here first, and moved to SOCKET after its permission is set.
+     */
+    private static final File SOCKET_TEMP = join(Repository.GITLET_DIR, "daemon.sock.tmp");
+    /**
+     * The frame that ends a response, followed by the exit status.
+     */
+    private static final int END = 0;
+    /**
+     * The frame of a piece of the standard output.
+     */
+    private static final int STDOUT = 1;
+    /**
+     * The frame of a piece of the standard error.
+     */
+    private static final int STDERR = 2;
+    /**
+     * The output of the command is sent when this many bytes are written, or when it's flushed.
+     */
+    private static final int FRAME_SIZE = 16 * 1024;
+
+    /**
+     * Serve the repository until a daemon stop request.
+     */
+    static void serve() {
+        if (SOCKET.exists()) {
+            if (forward(new String[]{"daemon", "ping"})) {
+                MyUtils.exit("A gitlet daemon is already running.");
+            }
+            // left by a daemon that didn't stop normally
+            SOCKET.delete();
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            bind(server);
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            System.out.println("Gitlet daemon is serving " + Repository.CWD + ".");
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    // the client went away, serve the next one
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /**
+     * Helper function for binding the server to the socket file, which only the owner
+     * can read and write. The socket is bound to a temporary file and moved in after its
+     * permission is set, so no client can connect before.
+     */
+    private static void bind(ServerSocketChannel server) throws IOException {
+        SOCKET_TEMP.delete();
+        server.bind(UnixDomainSocketAddress.of(SOCKET_TEMP.toPath()));
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(SOCKET_TEMP.toPath(),
+                    PosixFilePermissions.fromString("rw-------"));
+        }
+        Files.move(SOCKET_TEMP.toPath(), SOCKET.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Stop the running daemon.
+     */
+    static void stop() {
+        if (!SOCKET.exists() || !forward(new String[]{"daemon", "stop"})) {
+            MyUtils.exit("No gitlet daemon is running.");
+        }
+    }
+
+    /**
+     * Send the arguments to the daemon and print the output it sends back as it comes,
+     * exit with the status it sends if the command failed.
+     * When the standard output is closed, like the reader of a pipe has gone,
+     * the rest is not read and the daemon sees the connection closed.
+     * Return false if the daemon can't be reached, then the command should be run locally.
+     */
+    static boolean forward(String[] args) {
+        boolean started = false;
+        int status;
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()))) {
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+
+            DataInputStream response = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            int kind;
+            while ((kind = response.readByte()) != END) {
+                byte[] piece = new byte[response.readInt()];
+                response.readFully(piece);
+                started = true;
+                PrintStream target = kind == STDERR ? System.err : System.out;
+                target.write(piece, 0, piece.length);
+                target.flush();
+                if (System.out.checkError()) {
+                    return true;
+                }
+            }
+            status = response.readInt();
+        } catch (IOException excp) {
+            if (started) {
+                // a part of the output is printed, running it again would print it twice
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return false;
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+        return true;
+    }
+
+    /**
+     * Run the command of one request, and send back its output.
+     * Return false if the request is to stop the daemon.
+     */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream request = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = request.readUTF();
+        }
+
+        DataOutputStream response = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+        boolean running = true;
+        int status = 0;
+        if (args.length > 0 && args[0].equals("daemon")) {
+            running = !(args.length > 1 && args[1].equals("stop"));
+        } else {
+            status = run(args, new FrameOutputStream(response, STDOUT),
+                    new FrameOutputStream(response, STDERR));
+        }
+
+        response.writeByte(END);
+        response.writeInt(status);
+        response.flush();
+        return running;
+    }
+
+    /**
+     * Run the command, with the standard output and error going to the client.
+     * Return the exit status of the command, 0 for a gitlet message like running it in its own
+     * process, 1 for an uncaught exception like the java launcher.
+     */
+    private static int run(String[] args, OutputStream out, OutputStream err) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(new PrintStream(new BufferedOutputStream(out, FRAME_SIZE)));
+        System.setErr(new PrintStream(new BufferedOutputStream(err, FRAME_SIZE)));
+        try {
+            Main.run(args);
+            return 0;
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            Repository.forgetInfoMaps();
+            return 0;
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+            Repository.forgetInfoMaps();
+            return 1;
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    /**
+     * The output of the command to the client, every piece written is sent as a frame.
+     * The standard output and error share the connection, so a frame is written at once.
+     * When the client has gone the writes fail, and the PrintStream of the output
+     * reports it in checkError.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        /**
+         * The response to the client.
+         */
+        private final DataOutputStream response;
+        /**
+         * The kind of the frames, STDOUT or STDERR.
+         */
+        private final int kind;
+        /**
+         * Weather a write has failed, the rest of the output is dropped.
+         */
+        private boolean closed = false;
+
+        FrameOutputStream(DataOutputStream response, int kind) {
+            this.response = response;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("The client has gone.");
+            }
+            if (length == 0) {
+                return;
+            }
+            synchronized (response) {
+                try {
+                    response.writeByte(kind);
+                    response.writeInt(length);
+                    response.write(bytes, offset, length);
+                    response.flush();
+                } catch (IOException excp) {
+                    closed = true;
+                    throw excp;
+                }
+            }
+        }
+    }
+}
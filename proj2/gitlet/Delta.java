@@ -0,0 +1,237 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * Binary deltas between two versions of a file.
+ * A delta is a list of instructions to rebuild the target from the base:
+ * COPY offset length copies a run of bytes from the base,
+ * INSERT length bytes puts the new bytes in.
+ * <p>
+ * A delta blob is stored as:
+ * MAGIC | depth | base id (20 bytes) | target length | instructions
+ * The depth is the length of the chain to the full blob, a delta on a full blob has depth 1.
+ *
+ * @author GreyQian
+ */
+class Delta {
+    /**
+     * The magic bytes at the beginning of a delta blob.
+     */
+    private static final byte[] MAGIC = {0, 'G', 'D', 'T'};
+    /**
+     * The size of the header before the instructions, without the target length.
+     */
+    private static final int HEADER = MAGIC.length + 1 + 20;
+    /**
+     * The length of the blocks of the base which are indexed for matching.
+     */
+    private static final int BLOCK = 16;
+    /**
+     * The base of the rolling hash.
+     */
+    private static final int PRIME = 31;
+    /**
+     * Copy instruction code.
+     */
+    private static final int COPY = 0;
+    /**
+     * Insert instruction code.
+     */
+    private static final int INSERT = 1;
+
+    /**
+     * Create the delta instructions that rebuild the target from the base.
+     * Every block of the base is indexed by its hash, then the target is scanned
+     * with a rolling hash, each matched block is extended as far as it goes.
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int power = 1;
+        for (int i = 1; i < BLOCK; i++) {
+            power *= PRIME;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int literalStart = 0;
+        int pos = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            Integer candidate = blocks.get(h);
+            if (candidate != null && Arrays.equals(base, candidate, candidate + BLOCK,
+                    target, pos, pos + BLOCK)) {
+                int from = candidate;
+                int start = pos;
+                // extend backward over the bytes not emitted yet
+                while (from > 0 && start > literalStart && base[from - 1] == target[start - 1]) {
+                    from--;
+                    start--;
+                }
+                int end = pos + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length
+                        && base[baseEnd] == target[end]) {
+                    end++;
+                    baseEnd++;
+                }
+                writeInsert(out, target, literalStart, start);
+                out.write(COPY);
+                writeVarInt(out, from);
+                writeVarInt(out, end - start);
+                pos = end;
+                literalStart = end;
+                if (pos + BLOCK <= target.length) {
+                    h = hash(target, pos);
+                }
+                continue;
+            }
+            if (pos + BLOCK < target.length) {
+                h = (h - target[pos] * power) * PRIME + target[pos + BLOCK];
+            }
+            pos++;
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuild the target from the base and the delta instructions.
+     */
+    static byte[] apply(byte[] base, byte[] delta, int offset, int targetLength) {
+        byte[] target = new byte[targetLength];
+        int[] pos = {offset};
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int from = readVarInt(delta, pos);
+                int length = readVarInt(delta, pos);
+                System.arraycopy(base, from, target, written, length);
+                written += length;
+            } else {
+                int length = readVarInt(delta, pos);
+                System.arraycopy(delta, pos[0], target, written, length);
+                pos[0] += length;
+                written += length;
+            }
+        }
+        if (written != targetLength) {
+            throw error("Corrupt delta.");
+        }
+        return target;
+    }
+
+    /**
+     * Encode a delta blob of the target against the base blob.
+     */
+    static byte[] encode(String baseHash, int depth, byte[] target, byte[] instructions) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER + 5 + instructions.length);
+        out.writeBytes(MAGIC);
+        out.write(depth);
+        out.writeBytes(MyUtils.idToBytes(baseHash));
+        writeVarInt(out, target.length);
+        out.writeBytes(instructions);
+        return out.toByteArray();
+    }
+
+    /**
+     * Check weather the stored content of the blob with the hash is a delta blob.
+     * A full blob which happens to start with the magic bytes still hashes to its own name.
+     */
+    static boolean isDelta(byte[] stored, String hash) {
+        if (stored.length < HEADER || !Arrays.equals(stored, 0, MAGIC.length,
+                MAGIC, 0, MAGIC.length)) {
+            return false;
+        }
+        return !sha1(stored).equals(hash);
+    }
+
+    /**
+     * Check weather the stored blob may be a delta by its first bytes, without reading all of it.
+     * A blob that doesn't start with the magic bytes is always full.
+     */
+    static boolean mayBeDelta(ObjectStore store, String hash) {
+        byte[] head = store.readHead(ObjectStore.Type.BLOB, hash, MAGIC.length);
+        return Arrays.equals(head, MAGIC);
+    }
+
+    /**
+     * Get the chain depth of a delta blob.
+     */
+    static int getDepth(byte[] delta) {
+        return delta[MAGIC.length] & 0xff;
+    }
+
+    /**
+     * Get the base hash of a delta blob.
+     */
+    static String getBase(byte[] delta) {
+        return MyUtils.bytesToID(Arrays.copyOfRange(delta, MAGIC.length + 1, HEADER));
+    }
+
+    /**
+     * Rebuild the content of a delta blob given the content of its base.
+     */
+    static byte[] decode(byte[] base, byte[] delta) {
+        int[] pos = {HEADER};
+        int targetLength = readVarInt(delta, pos);
+        return apply(base, delta, pos[0], targetLength);
+    }
+
+    /**
+     * The hash of the BLOCK bytes start at the offset.
+     */
+    private static int hash(byte[] bytes, int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK; i++) {
+            h = h * PRIME + bytes[i];
+        }
+        return h;
+    }
+
+    /**
+     * Write an insert instruction for the bytes between start and end, if there are some.
+     */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] bytes, int start, int end) {
+        if (start < end) {
+            out.write(INSERT);
+            writeVarInt(out, end - start);
+            out.write(bytes, start, end - start);
+        }
+    }
+
+    /**
+     * Write a non-negative int in 7 bits groups, low group first.
+     */
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Read an int written by writeVarInt, advance the position.
+     */
+    private static int readVarInt(byte[] bytes, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = bytes[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/**
+ * Compare the full blobs and the delta blobs on a text file edited many times.
+ * Usage: java gitlet.DeltaBenchmark [lines] [versions]
+ * Each version changes one line of the last version, every version is stored
+ * once in full and once as a delta against the last version, the benchmark reports
+ * the bytes on disk and the average time to read a version back.
+ *
+ * @author GreyQian
+ */
+public class DeltaBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int versions = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Random random = new Random(61);
+        List<String> text = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            text.add(randomLine(random, i));
+        }
+        List<byte[]> contents = new ArrayList<>();
+        for (int v = 0; v < versions; v++) {
+            text.set(random.nextInt(lines), randomLine(random, v));
+            contents.add(String.join("\n", text).getBytes(StandardCharsets.UTF_8));
+        }
+
+        File dir = Files.createTempDirectory("gitlet-delta").toFile();
+        ObjectStore fullStore = new ObjectStore(join(dir, "full"));
+        ObjectStore deltaStore = new ObjectStore(join(dir, "delta"));
+        join(dir, "full", "Blobs").mkdirs();
+        join(dir, "delta", "Blobs").mkdirs();
+
+        List<String> hashes = new ArrayList<>();
+        long start = System.nanoTime();
+        for (byte[] content : contents) {
+            hashes.add(MyUtils.saveBlob(fullStore, content, null));
+        }
+        double fullWrite = elapsed(start);
+        String base = null;
+        start = System.nanoTime();
+        for (byte[] content : contents) {
+            base = MyUtils.saveBlob(deltaStore, content, base);
+        }
+        double deltaWrite = elapsed(start);
+
+        start = System.nanoTime();
+        for (String hash : hashes) {
+            MyUtils.readBlob(fullStore, hash);
+        }
+        double fullRead = elapsed(start);
+        start = System.nanoTime();
+        for (String hash : hashes) {
+            MyUtils.readBlob(deltaStore, hash);
+        }
+        double deltaRead = elapsed(start);
+
+        long fullBytes = folderSize(join(dir, "full", "Blobs"));
+        long deltaBytes = folderSize(join(dir, "delta", "Blobs"));
+        System.out.printf("%d versions of a %d lines file (%d bytes)%n",
+                versions, lines, contents.get(0).length);
+        System.out.printf("%-6s %14s %12s %14s%n", "store", "bytes on disk", "write (ms)", "read (us/blob)");
+        System.out.printf("%-6s %14d %12.1f %14.1f%n", "full", fullBytes,
+                fullWrite, fullRead * 1000 / versions);
+        System.out.printf("%-6s %14d %12.1f %14.1f%n", "delta", deltaBytes,
+                deltaWrite, deltaRead * 1000 / versions);
+        System.out.printf("size reduction: %.1f%%, read cost: %.2fx%n",
+                100.0 * (fullBytes - deltaBytes) / fullBytes, deltaRead / fullRead);
+
+        deleteAll(dir);
+    }
+
+    /**
+     * Returns a line of text for the benchmark.
+     */
+    private static String randomLine(Random random, int seed) {
+        StringBuilder sb = new StringBuilder("line ").append(seed).append(':');
+        int words = 4 + random.nextInt(8);
+        for (int i = 0; i < words; i++) {
+            sb.append(' ').append(Integer.toString(random.nextInt(1 << 20), 36));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the milliseconds since START.
+     */
+    private static double elapsed(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * Returns the total size of the plain files in the folder.
+     */
+    private static long folderSize(File dir) {
+        long size = 0;
+        for (String name : plainFilenamesIn(dir)) {
+            size += join(dir, name).length();
+        }
+        return size;
+    }
+
+    /**
+     * Delete the directory and everything in it.
+     */
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,335 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The line diff of two files, by the linear space algorithm of Myers,
+ * "An O(ND) Difference Algorithm and Its Variations".
+ * The common prefix and suffix are matched first, then the middle snake of the rest is found
+ * by searching from both ends at the same time, and the two sides of it are diffed the same way.
+ * Only the two diagonal arrays of one level are alive at a time, so the memory is linear
+ * in the length of the files.
+ * <p>
+ * The lines are compared by ids, equal lines have the same id, so a line is hashed only once.
+ * The bytes of a file are mapped to chars one to one, so any file can be split and joined
+ * back to the same bytes, a line keeps its line terminator.
+ * <p>
+ * The unified diff of two files is written hunk by hunk to the output, with CONTEXT lines
+ * around the changes, only the lines of one hunk are written at a time.
+ *
+ * @author GreyQian
+ */
+class Diff {
+    /**
+     * The number of unchanged lines around the changes in a hunk.
+     */
+    static final int CONTEXT = 3;
+    /**
+     * A file having a zero byte in its first bytes is binary, its lines are not compared.
+     */
+    private static final int BINARY_CHECK = 8000;
+    /**
+     * The name of an absent file.
+     */
+    private static final String NULL_NAME = "/dev/null";
+
+    /**
+     * Split the content into lines, every line keeps its '\n', the last one may not have it.
+     */
+    static List<String> splitLines(byte[] content) {
+        String text = new String(content, StandardCharsets.ISO_8859_1);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            lines.add(text.substring(start, end + 1));
+            start = end + 1;
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+
+    /**
+     * Join the lines back to the bytes of the file.
+     */
+    static byte[] joinLines(CharSequence text) {
+        return text.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Get the id of every line, the lines equal to a line in the table have its id,
+     * the new lines are added to the table.
+     */
+    static int[] toIDs(List<String> lines, Map<String, Integer> table) {
+        int[] ids = new int[lines.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Integer id = table.get(lines.get(i));
+            if (id == null) {
+                id = table.size();
+                table.put(lines.get(i), id);
+            }
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Match the lines of the two files along a shortest edit script.
+     * Return for every line of A the index of the line of B it's matched to, -1 if it's deleted.
+     * The matched indexes always go up.
+     */
+    static int[] match(int[] a, int[] b) {
+        int[] matched = new int[a.length];
+        Arrays.fill(matched, -1);
+        diff(a, 0, a.length, b, 0, b.length, matched);
+        return matched;
+    }
+
+    /**
+     * Helper function for match the lines of a[aLo, aHi) and b[bLo, bHi).
+     */
+    private static void diff(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                             int[] matched) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            matched[aLo++] = bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            matched[--aHi] = --bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] split = bisect(a, aLo, aHi, b, bLo, bHi);
+        if (split == null) {
+            // nothing in common
+            return;
+        }
+        diff(a, aLo, split[0], b, bLo, split[1], matched);
+        diff(a, split[0], aHi, b, split[1], bHi, matched);
+    }
+
+    /**
+     * Helper function for find where the forward and the backward paths of a shortest edit
+     * script meet, the middle snake. Return the point to split the files at,
+     * null if the files have no line in common.
+     */
+    private static int[] bisect(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // with an odd delta the forward path meets the backward one, otherwise the other way
+        boolean front = delta % 2 != 0;
+        // the diagonals which went off the edit graph are not searched again
+        int k1Start = 0;
+        int k1End = 0;
+        int k2Start = 0;
+        int k2End = 0;
+        for (int d = 0; d < maxD; d++) {
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1])) {
+                    x1 = forward[k1Offset + 1];
+                } else {
+                    x1 = forward[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1++;
+                    y1++;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && backward[k2Offset] != -1
+                            && x1 >= n - backward[k2Offset]) {
+                        return split(aLo, aHi, bLo, bHi, x1, y1);
+                    }
+                }
+            }
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && backward[k2Offset - 1] < backward[k2Offset + 1])) {
+                    x2 = backward[k2Offset + 1];
+                } else {
+                    x2 = backward[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aHi - x2 - 1] == b[bHi - y2 - 1]) {
+                    x2++;
+                    y2++;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return split(aLo, aHi, bLo, bHi, x1, y1);
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper function for make the split point, null if it doesn't split the files into two
+     * smaller parts.
+     */
+    private static int[] split(int aLo, int aHi, int bLo, int bHi, int x, int y) {
+        if ((x == 0 && y == 0) || (x == aHi - aLo && y == bHi - bLo)) {
+            return null;
+        }
+        return new int[]{aLo + x, bLo + y};
+    }
+
+    /**
+     * Write the unified diff of the file from the old content to the new one,
+     * null if the file is absent on that side.
+     */
+    static void writeUnified(OutputStream out, String fileName, byte[] oldContent,
+                             byte[] newContent) throws IOException {
+        String oldName = oldContent == null ? NULL_NAME : "a/" + fileName;
+        String newName = newContent == null ? NULL_NAME : "b/" + fileName;
+        write(out, "diff a/" + fileName + " b/" + fileName + "\n");
+        if (oldContent == null) {
+            write(out, "new file\n");
+        } else if (newContent == null) {
+            write(out, "deleted file\n");
+        }
+        oldContent = oldContent == null ? new byte[0] : oldContent;
+        newContent = newContent == null ? new byte[0] : newContent;
+        if (isBinary(oldContent) || isBinary(newContent)) {
+            write(out, "Binary files " + oldName + " and " + newName + " differ\n");
+            return;
+        }
+        write(out, "--- " + oldName + "\n");
+        write(out, "+++ " + newName + "\n");
+
+        List<String> a = splitLines(oldContent);
+        List<String> b = splitLines(newContent);
+        Map<String, Integer> table = new HashMap<>();
+        int[] matched = match(toIDs(a, table), toIDs(b, table));
+        table = null;
+
+        // the changes are the ranges of unmatched lines, [aFrom, aTo) replaced by [bFrom, bTo)
+        List<int[]> hunk = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (i < a.size() && matched[i] == j) {
+                i++;
+                j++;
+                continue;
+            }
+            int aFrom = i;
+            while (i < a.size() && matched[i] < 0) {
+                i++;
+            }
+            int bTo = i < a.size() ? matched[i] : b.size();
+            int[] change = {aFrom, i, j, bTo};
+            j = bTo;
+            // a change far from the last one starts a new hunk
+            if (!hunk.isEmpty() && aFrom - hunk.get(hunk.size() - 1)[1] > 2 * CONTEXT) {
+                writeHunk(out, hunk, a, b);
+                hunk.clear();
+            }
+            hunk.add(change);
+        }
+        if (!hunk.isEmpty()) {
+            writeHunk(out, hunk, a, b);
+        }
+    }
+
+    /**
+     * Helper function for write a hunk of the changes, with the context lines around them.
+     */
+    private static void writeHunk(OutputStream out, List<int[]> changes, List<String> a,
+                                  List<String> b) throws IOException {
+        int[] first = changes.get(0);
+        int[] last = changes.get(changes.size() - 1);
+        int aFrom = Math.max(0, first[0] - CONTEXT);
+        int aTo = Math.min(a.size(), last[1] + CONTEXT);
+        int bFrom = first[2] - (first[0] - aFrom);
+        int bTo = last[3] + (aTo - last[1]);
+        write(out, "@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo) + " @@\n");
+        int i = aFrom;
+        for (int[] change : changes) {
+            writeLines(out, ' ', a, i, change[0]);
+            writeLines(out, '-', a, change[0], change[1]);
+            writeLines(out, '+', b, change[2], change[3]);
+            i = change[1];
+        }
+        writeLines(out, ' ', a, i, aTo);
+    }
+
+    /**
+     * Helper function for the range of the lines in a hunk header, it starts from line 1,
+     * an empty range is after the line it starts at.
+     */
+    private static String range(int from, int to) {
+        int start = to > from ? from + 1 : from;
+        return to - from == 1 ? String.valueOf(start) : start + "," + (to - from);
+    }
+
+    /**
+     * Helper function for write the lines in the range, each after the prefix.
+     */
+    private static void writeLines(OutputStream out, char prefix, List<String> lines,
+                                   int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            String line = lines.get(i);
+            out.write(prefix);
+            out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+            if (!line.endsWith("\n")) {
+                write(out, "\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /**
+     * Helper function for write a header line.
+     */
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Check weather the content is binary, it has a zero byte in its first bytes.
+     */
+    static boolean isBinary(byte[] content) {
+        int length = Math.min(content.length, BINARY_CHECK);
+        for (int i = 0; i < length; i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
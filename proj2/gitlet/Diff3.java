@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.util.*;
+
+/**
+ * The three way merge of the lines of a file, like diff3.
+ * The base is diffed with both sides, see Diff. A line of the base matched in both sides is
+ * stable, the lines between two stable lines form a chunk in every file. In a chunk:
+ * if one side is the same as the base, the other side's lines are taken,
+ * if both sides are the same, their lines are taken,
+ * otherwise both changed it and the chunk is a conflict:
+ * <pre>
+ * &lt;&lt;&lt;&lt;&lt;&lt;&lt; HEAD
+ * the lines of the current branch
+ * =======
+ * the lines of the given branch
+ * &gt;&gt;&gt;&gt;&gt;&gt;&gt;
+ * </pre>
+ * so only the lines both sides changed are marked, and the other changes are merged.
+ *
+ * @author GreyQian
+ */
+class Diff3 {
+    /**
+     * The result of a merge.
+     */
+    static class Result {
+        /**
+         * The merged content.
+         */
+        private final byte[] content;
+        /**
+         * The number of conflicts.
+         */
+        private final int conflicts;
+        /**
+         * Weather the whole file is one conflict, nothing is merged.
+         */
+        private final boolean whole;
+
+        Result(byte[] content, int conflicts, boolean whole) {
+            this.content = content;
+            this.conflicts = conflicts;
+            this.whole = whole;
+        }
+
+        byte[] getContent() {
+            return content;
+        }
+
+        int getConflicts() {
+            return conflicts;
+        }
+
+        boolean isWholeConflict() {
+            return whole;
+        }
+    }
+
+    /**
+     * Merge the changes of the two sides from the base, an absent file is empty.
+     */
+    static Result merge(byte[] base, byte[] current, byte[] given) {
+        List<String> baseLines = Diff.splitLines(base);
+        List<String> currentLines = Diff.splitLines(current);
+        List<String> givenLines = Diff.splitLines(given);
+        Map<String, Integer> table = new HashMap<>();
+        int[] baseIDs = Diff.toIDs(baseLines, table);
+        int[] currentIDs = Diff.toIDs(currentLines, table);
+        int[] givenIDs = Diff.toIDs(givenLines, table);
+        table = null;
+        int[] toCurrent = Diff.match(baseIDs, currentIDs);
+        int[] toGiven = Diff.match(baseIDs, givenIDs);
+
+        StringBuilder merged = new StringBuilder(Math.max(current.length, given.length));
+        int conflicts = 0;
+        boolean whole = false;
+        int i = 0;
+        int c = 0;
+        int g = 0;
+        while (true) {
+            // the next stable line
+            int j = i;
+            while (j < baseIDs.length && (toCurrent[j] < 0 || toGiven[j] < 0)) {
+                j++;
+            }
+            int cEnd = j < baseIDs.length ? toCurrent[j] : currentIDs.length;
+            int gEnd = j < baseIDs.length ? toGiven[j] : givenIDs.length;
+            if (j == i && cEnd == c && gEnd == g) {
+                if (j == baseIDs.length) {
+                    break;
+                }
+                merged.append(baseLines.get(i));
+                i++;
+                c++;
+                g++;
+                continue;
+            }
+
+            if (same(baseIDs, i, j, currentIDs, c, cEnd)) {
+                append(merged, givenLines, g, gEnd);
+            } else if (same(baseIDs, i, j, givenIDs, g, gEnd)
+                    || same(currentIDs, c, cEnd, givenIDs, g, gEnd)) {
+                append(merged, currentLines, c, cEnd);
+            } else {
+                conflicts++;
+                whole = i == 0 && c == 0 && g == 0 && j == baseIDs.length
+                        && cEnd == currentIDs.length && gEnd == givenIDs.length;
+                merged.append("<<<<<<< HEAD\n");
+                appendLines(merged, currentLines, c, cEnd);
+                merged.append("=======\n");
+                appendLines(merged, givenLines, g, gEnd);
+                merged.append(">>>>>>>\n");
+            }
+            i = j;
+            c = cEnd;
+            g = gEnd;
+        }
+        return new Result(Diff.joinLines(merged), conflicts, whole);
+    }
+
+    /**
+     * Helper function for check weather the two ranges have the same lines.
+     */
+    private static boolean same(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        return Arrays.equals(a, aFrom, aTo, b, bFrom, bTo);
+    }
+
+    /**
+     * Helper function for append the lines in the range.
+     */
+    private static void append(StringBuilder merged, List<String> lines, int from, int to) {
+        for (int i = from; i < to; i++) {
+            merged.append(lines.get(i));
+        }
+    }
+
+    /**
+     * Helper function for append the lines in the range inside the conflict markers,
+     * so the last one must end with '\n'.
+     */
+    private static void appendLines(StringBuilder merged, List<String> lines, int from, int to) {
+        append(merged, lines, from, to);
+        if (to > from && !lines.get(to - 1).endsWith("\n")) {
+            merged.append('\n');
+        }
+    }
+}
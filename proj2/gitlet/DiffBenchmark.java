@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Time the line diff on large files.
+ * Usage: java gitlet.DiffBenchmark [rounds]
+ * For every size of file and number of edits, the file is diffed with an edited copy of it,
+ * once only matching the lines and once writing the unified diff to an output which drops it.
+ * The benchmark reports the time of each and the size of the unified diff.
+ *
+ * @author GreyQian
+ */
+public class DiffBenchmark {
+    /**
+     * The number of lines of the files.
+     */
+    private static final int[] LINES = {10_000, 100_000, 1_000_000};
+    /**
+     * The number of edits of the copies.
+     */
+    private static final int[] EDITS = {10, 1000};
+
+    public static void main(String[] args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        System.out.printf("%10s %8s %12s %12s %12s%n", "lines", "edits",
+                "match (ms)", "unified (ms)", "diff bytes");
+        for (int lines : LINES) {
+            for (int edits : EDITS) {
+                run(lines, edits, rounds);
+            }
+        }
+    }
+
+    /**
+     * Diff a file of LINES lines with a copy of EDITS edits ROUNDS times, and print the results.
+     */
+    private static void run(int lines, int edits, int rounds) throws IOException {
+        Random random = new Random(lines + edits);
+        List<String> base = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            base.add("    line " + i + " value " + random.nextInt(1_000_000) + ";\n");
+        }
+        List<String> edited = new ArrayList<>(base);
+        for (int e = 0; e < edits; e++) {
+            int at = random.nextInt(edited.size());
+            switch (random.nextInt(3)) {
+                case 0:
+                    edited.set(at, "    changed " + random.nextInt() + ";\n");
+                    break;
+                case 1:
+                    edited.add(at, "    added " + random.nextInt() + ";\n");
+                    break;
+                default:
+                    edited.remove(at);
+                    break;
+            }
+        }
+        byte[] oldContent = String.join("", base).getBytes(StandardCharsets.UTF_8);
+        byte[] newContent = String.join("", edited).getBytes(StandardCharsets.UTF_8);
+        CountingOutputStream out = new CountingOutputStream();
+
+        // warm up before timing
+        Diff.writeUnified(out, "file", oldContent, newContent);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            List<String> a = Diff.splitLines(oldContent);
+            List<String> b = Diff.splitLines(newContent);
+            Map<String, Integer> table = new HashMap<>();
+            Diff.match(Diff.toIDs(a, table), Diff.toIDs(b, table));
+        }
+        double match = (System.nanoTime() - start) / 1e6 / rounds;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            out.count = 0;
+            Diff.writeUnified(out, "file", oldContent, newContent);
+        }
+        double unified = (System.nanoTime() - start) / 1e6 / rounds;
+        System.out.printf("%10d %8d %12.1f %12.1f %12d%n", lines, edits, match, unified, out.count);
+    }
+
+    /**
+     * The output which only counts the bytes written to it.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        /**
+         * The number of bytes written.
+         */
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
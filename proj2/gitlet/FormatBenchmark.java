@@ -0,0 +1,68 @@
+package gitlet;
+
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * Compare java serialization and the binary format on the file maps of commits and stage maps.
+ * Usage: java gitlet.FormatBenchmark [files] [rounds]
+ * The map has the given number of files, the benchmark reports the encoded size and
+ * the average time to decode it as a java serialized map, the map the commits used to carry,
+ * as a tree object, and as a stage map.
+ *
+ * @author GreyQian
+ */
+public class FormatBenchmark {
+
+    public static void main(String[] args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Random random = new Random(61);
+        TreeMap<String, String> tracked = new TreeMap<>();
+        for (int i = 0; i < files; i++) {
+            String name = "file" + i + "_" + Integer.toString(random.nextInt(1 << 20), 36) + ".txt";
+            tracked.put(name, sha1(name));
+        }
+        byte[] tree = Tree.ofFiles(tracked).toBytes();
+        byte[] serializedMap = serialize(tracked);
+        byte[] binaryMap = BinaryFormat.encodeMap(tracked);
+
+        // warm up all the ways before timing
+        decodeTrees(tree, rounds / 10);
+        decodeMaps(serializedMap, rounds / 10);
+        decodeMaps(binaryMap, rounds / 10);
+
+        System.out.printf("a file map of %d files, %d rounds%n", files, rounds);
+        System.out.printf("%-18s %10s %18s%n", "format", "bytes", "decode (us/object)");
+        System.out.printf("%-18s %10d %18.1f%n", "tree object", tree.length,
+                decodeTrees(tree, rounds) * 1000 / rounds);
+        System.out.printf("%-18s %10d %18.1f%n", "map serialized", serializedMap.length,
+                decodeMaps(serializedMap, rounds) * 1000 / rounds);
+        System.out.printf("%-18s %10d %18.1f%n", "map binary", binaryMap.length,
+                decodeMaps(binaryMap, rounds) * 1000 / rounds);
+    }
+
+    /**
+     * Decode the tree ROUNDS times, returns the milliseconds it took.
+     */
+    private static double decodeTrees(byte[] content, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            Tree.fromBytes(content);
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * Decode the map ROUNDS times, returns the milliseconds it took.
+     */
+    private static double decodeMaps(byte[] content, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            BinaryFormat.decodeMap(content);
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
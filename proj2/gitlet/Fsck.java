@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * The check of the object store, like git fsck.
+ * Every object is read and hashed again on the worker threads, see Workers:
+ * a blob must hash to its name after its delta or chunks are resolved, a chunk or a tree
+ * must hash to its name, and a commit must decode and compute its own id.
+ * Then every hash an object refers to must be in the store: the parents and the root tree
+ * of a commit, the files of a commit of the old formats, the sub trees and the blobs
+ * of a tree, the base of a delta blob and the chunks of a chunked blob.
+ * At last the objects the branches, the HEAD commit and the staged blobs can't reach,
+ * and no other such object refers to, are dangling, they are left by reset or rm-branch
+ * and removed by gc.
+ * <p>
+ * The problems are printed one per line:
+ * corrupt [type] [id]: [reason]
+ * missing [type] [id] in [type] [id]
+ * broken link from commit [id] to parent [id]
+ * dangling [type] [id]
+ *
+ * @author GreyQian
+ */
+class Fsck {
+
+    /**
+     * The result of checking an object.
+     */
+    private static class Checked {
+        /**
+         * Why the object is corrupt, null if it's good.
+         */
+        private String problem = null;
+        /**
+         * The objects the object refers to.
+         */
+        private final List<Map.Entry<ObjectStore.Type, String>> refs = new ArrayList<>();
+        /**
+         * The number of the refs which are parent commits, they are at the front.
+         */
+        private int parents = 0;
+    }
+
+    /**
+     * Check all the objects of the store, and print the problems found.
+     * The branches are name to commit id, the staged are the hashes of the staged blobs.
+     * Return the number of problems, the dangling objects are not counted.
+     */
+    static int check(ObjectStore store, Map<String, String> branches, String headCommit,
+                     Collection<String> staged) {
+        List<Map.Entry<ObjectStore.Type, String>> objects = new ArrayList<>();
+        Map<ObjectStore.Type, Set<String>> exists = new EnumMap<>(ObjectStore.Type.class);
+        for (ObjectStore.Type type : ObjectStore.Type.values()) {
+            exists.put(type, new HashSet<>());
+            for (String id : store.list(type)) {
+                if (MyUtils.isFullID(id)) {
+                    objects.add(Map.entry(type, id));
+                    exists.get(type).add(id);
+                }
+            }
+        }
+        Map<Map.Entry<ObjectStore.Type, String>, Checked> results =
+                Workers.map(objects, object -> checkObject(store, object.getKey(),
+                        object.getValue()));
+
+        int problems = 0;
+        for (Map.Entry<Map.Entry<ObjectStore.Type, String>, Checked> result : results.entrySet()) {
+            if (result.getValue().problem != null) {
+                System.out.println("corrupt " + name(result.getKey()) + ": "
+                        + result.getValue().problem);
+                problems++;
+            }
+        }
+        for (Map.Entry<Map.Entry<ObjectStore.Type, String>, Checked> result : results.entrySet()) {
+            Checked checked = result.getValue();
+            for (int i = 0; i < checked.refs.size(); i++) {
+                Map.Entry<ObjectStore.Type, String> ref = checked.refs.get(i);
+                if (exists.get(ref.getKey()).contains(ref.getValue())) {
+                    continue;
+                }
+                if (i < checked.parents) {
+                    System.out.println("broken link from commit " + result.getKey().getValue()
+                            + " to parent " + ref.getValue());
+                } else {
+                    System.out.println("missing " + name(ref) + " in " + name(result.getKey()));
+                }
+                problems++;
+            }
+        }
+
+        // mark the objects the branches and the staging area reach
+        Set<Map.Entry<ObjectStore.Type, String>> reachable = new HashSet<>();
+        Deque<Map.Entry<ObjectStore.Type, String>> stack = new ArrayDeque<>();
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            if (!exists.get(ObjectStore.Type.COMMIT).contains(branch.getValue())) {
+                System.out.println("missing commit " + branch.getValue()
+                        + " of branch " + branch.getKey());
+                problems++;
+            }
+            stack.push(Map.entry(ObjectStore.Type.COMMIT, branch.getValue()));
+        }
+        stack.push(Map.entry(ObjectStore.Type.COMMIT, headCommit));
+        for (String blobID : staged) {
+            if (!exists.get(ObjectStore.Type.BLOB).contains(blobID)) {
+                System.out.println("missing blob " + blobID + " in the staging area");
+                problems++;
+            }
+            stack.push(Map.entry(ObjectStore.Type.BLOB, blobID));
+        }
+        while (!stack.isEmpty()) {
+            Map.Entry<ObjectStore.Type, String> object = stack.pop();
+            Checked checked = results.get(object);
+            if (checked != null && reachable.add(object)) {
+                checked.refs.forEach(stack::push);
+            }
+        }
+        // only the tips are dangling, not the objects other unreachable ones refer to
+        Set<Map.Entry<ObjectStore.Type, String>> referred = new HashSet<>();
+        for (Map.Entry<ObjectStore.Type, String> object : objects) {
+            if (!reachable.contains(object)) {
+                referred.addAll(results.get(object).refs);
+            }
+        }
+        for (Map.Entry<ObjectStore.Type, String> object : objects) {
+            if (!reachable.contains(object) && !referred.contains(object)) {
+                System.out.println("dangling " + name(object));
+            }
+        }
+        System.out.println("Checked " + objects.size() + " objects, found " + problems
+                + " problems.");
+        return problems;
+    }
+
+    /**
+     * Helper function for check an object, it runs on a worker thread.
+     * A corrupt object refers to nothing, since its content can't be trusted.
+     */
+    private static Checked checkObject(ObjectStore store, ObjectStore.Type type, String id) {
+        Checked checked = new Checked();
+        try {
+            byte[] stored = store.read(type, id);
+            switch (type) {
+                case COMMIT:
+                    checkCommit(id, stored, checked);
+                    break;
+                case TREE:
+                    if (!sha1(stored).equals(id)) {
+                        checked.problem = "hash mismatch";
+                        break;
+                    }
+                    List<String> subTrees = new ArrayList<>();
+                    List<String> files = new ArrayList<>();
+                    Tree.fromBytes(stored).listEntries(subTrees, files);
+                    addRefs(checked, ObjectStore.Type.TREE, subTrees);
+                    addRefs(checked, ObjectStore.Type.BLOB, files);
+                    break;
+                case BLOB:
+                    checkBlob(store, id, stored, checked);
+                    break;
+                default:
+                    if (!sha1(stored).equals(id)) {
+                        checked.problem = "hash mismatch";
+                    }
+                    break;
+            }
+        } catch (RuntimeException excp) {
+            checked.problem = excp.getMessage() == null ? excp.toString() : excp.getMessage();
+        }
+        if (checked.problem != null) {
+            checked.refs.clear();
+            checked.parents = 0;
+        }
+        return checked;
+    }
+
+    /**
+     * Helper function for check a commit, it must compute its own id.
+     */
+    private static void checkCommit(String id, byte[] stored, Checked checked) {
+        Commit commit = Commit.fromBytes(stored);
+        if (!commit.getCommitID().equals(id)) {
+            checked.problem = "hash mismatch";
+            return;
+        }
+        for (String parent : new String[]{commit.getDirectParentID(), commit.getOtherParentID()}) {
+            if (parent != null && MyUtils.isFullID(parent)) {
+                checked.refs.add(Map.entry(ObjectStore.Type.COMMIT, parent));
+                checked.parents++;
+            }
+        }
+        if (commit.isTreeFormat()) {
+            if (commit.getTreeID() != null) {
+                checked.refs.add(Map.entry(ObjectStore.Type.TREE, commit.getTreeID()));
+            }
+        } else {
+            addRefs(checked, ObjectStore.Type.BLOB, commit.getTrackedFilesMap().values());
+        }
+    }
+
+    /**
+     * Helper function for check a blob, it must hash to its name after its delta or its chunks
+     * are resolved, if the base or a chunk is missing it's reported as missing instead.
+     */
+    private static void checkBlob(ObjectStore store, String id, byte[] stored, Checked checked) {
+        if (Delta.isDelta(stored, id)) {
+            String base = Delta.getBase(stored);
+            checked.refs.add(Map.entry(ObjectStore.Type.BLOB, base));
+            if (!store.contains(ObjectStore.Type.BLOB, base)) {
+                return;
+            }
+        } else if (Chunker.isManifest(stored, id)) {
+            List<String> chunks = Chunker.chunkIDs(stored);
+            addRefs(checked, ObjectStore.Type.CHUNK, chunks);
+            for (String chunk : chunks) {
+                if (!store.contains(ObjectStore.Type.CHUNK, chunk)) {
+                    return;
+                }
+            }
+        }
+        if (!sha1(MyUtils.readBlob(store, id)).equals(id)) {
+            checked.problem = "hash mismatch";
+        }
+    }
+
+    /**
+     * Helper function for add the refs of the type.
+     */
+    private static void addRefs(Checked checked, ObjectStore.Type type, Collection<String> ids) {
+        for (String id : ids) {
+            checked.refs.add(Map.entry(type, id));
+        }
+    }
+
+    /**
+     * Helper function for the name of an object in the report, like blob [id].
+     */
+    private static String name(Map.Entry<ObjectStore.Type, String> object) {
+        return object.getKey().name().toLowerCase() + " " + object.getValue();
+    }
+}
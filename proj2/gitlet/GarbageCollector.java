@@ -0,0 +1,150 @@
+package gitlet;
+
+import java.util.*;
+
+/**
+ * The garbage collection of the object store.
+ * reset, rm-branch and adding a file again leave commits, trees and blobs no branch can reach.
+ * gc marks every object reachable from the branches, the HEAD commit and the staged blobs:
+ * the parents and the root tree of a commit, the sub trees and the blobs of a tree,
+ * the base of a delta blob and the chunks of a chunked blob.
+ * The objects not marked are removed, and the reachable ones are folded into one pack.
+ * <p>
+ * An object written in the last gc.grace seconds, two weeks by default, is not removed even
+ * if it's not reachable, with all the objects it reaches, so gc never removes the objects of
+ * a command running at the same time, and a reset can still be undone for a while.
+ * Such an object stays loose, so it expires when its time comes.
+ *
+ * @author GreyQian
+ */
+class GarbageCollector {
+    /**
+     * The default grace period in seconds, two weeks.
+     */
+    private static final int DEFAULT_GRACE = 14 * 24 * 60 * 60;
+
+    /**
+     * Collect the garbage of the store, the commits and the blobs given are the roots.
+     * Return the number of bytes reclaimed.
+     */
+    static long collect(ObjectStore store, Collection<String> commits, Collection<String> blobs) {
+        long grace = Config.getInt("gc.grace", DEFAULT_GRACE);
+        long time = System.currentTimeMillis() - grace * 1000;
+
+        Map<ObjectStore.Type, Set<String>> reachable = new EnumMap<>(ObjectStore.Type.class);
+        for (ObjectStore.Type type : ObjectStore.Type.values()) {
+            reachable.put(type, new HashSet<>());
+        }
+        for (String commitID : commits) {
+            mark(store, ObjectStore.Type.COMMIT, commitID, reachable);
+        }
+        for (String blobID : blobs) {
+            mark(store, ObjectStore.Type.BLOB, blobID, reachable);
+        }
+
+        Map<ObjectStore.Type, Set<String>> kept = new EnumMap<>(ObjectStore.Type.class);
+        for (ObjectStore.Type type : ObjectStore.Type.values()) {
+            kept.put(type, new HashSet<>(reachable.get(type)));
+        }
+        for (Map.Entry<ObjectStore.Type, Set<String>> newer : store.listNewer(time).entrySet()) {
+            for (String id : newer.getValue()) {
+                mark(store, newer.getKey(), id, kept);
+            }
+        }
+
+        long reclaimed = store.collect(reachable, kept, time);
+        // the removed objects may be cached or indexed
+        CommitCache.clear();
+        Tree.clearCache();
+        CommitIndex.rebuild();
+        MessageIndex.rebuild();
+        CommitGraph.rebuild();
+        return reclaimed;
+    }
+
+    /**
+     * Mark the object and all the objects it reaches.
+     * Use an explicit stack, the history can be deeper than the java stack.
+     */
+    private static void mark(ObjectStore store, ObjectStore.Type type, String id,
+                             Map<ObjectStore.Type, Set<String>> marks) {
+        Deque<Map.Entry<ObjectStore.Type, String>> stack = new ArrayDeque<>();
+        stack.push(Map.entry(type, id));
+        while (!stack.isEmpty()) {
+            Map.Entry<ObjectStore.Type, String> object = stack.pop();
+            ObjectStore.Type objectType = object.getKey();
+            String objectID = object.getValue();
+            if (!marks.get(objectType).add(objectID)
+                    || !store.contains(objectType, objectID)) {
+                continue;
+            }
+            switch (objectType) {
+                case COMMIT:
+                    markCommit(objectID, stack);
+                    break;
+                case TREE:
+                    List<String> subTrees = new ArrayList<>();
+                    List<String> files = new ArrayList<>();
+                    Tree.listEntries(objectID, subTrees, files);
+                    push(stack, ObjectStore.Type.TREE, subTrees);
+                    push(stack, ObjectStore.Type.BLOB, files);
+                    break;
+                case BLOB:
+                    markBlob(store, objectID, stack);
+                    break;
+                default:
+                    // a chunk reaches nothing
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Helper function for push the parents and the root tree of the commit.
+     * A commit of the old formats has no tree, its blobs are pushed instead,
+     * getTreeID would write the trees for it and the mark must not write anything.
+     */
+    private static void markCommit(String commitID,
+                                   Deque<Map.Entry<ObjectStore.Type, String>> stack) {
+        Commit commit = Commit.getCommit(commitID);
+        for (String parent : new String[]{commit.getDirectParentID(), commit.getOtherParentID()}) {
+            if (parent != null && MyUtils.isFullID(parent)) {
+                stack.push(Map.entry(ObjectStore.Type.COMMIT, parent));
+            }
+        }
+        if (!commit.isTreeFormat()) {
+            push(stack, ObjectStore.Type.BLOB, commit.getTrackedFilesMap().values());
+        } else if (commit.getTreeID() != null) {
+            stack.push(Map.entry(ObjectStore.Type.TREE, commit.getTreeID()));
+        }
+    }
+
+    /**
+     * Helper function for push the base of a delta blob, or the chunks of a chunked blob.
+     * Only the blobs starting with the magic bytes of the two are read.
+     */
+    private static void markBlob(ObjectStore store, String blobID,
+                                 Deque<Map.Entry<ObjectStore.Type, String>> stack) {
+        if (Delta.mayBeDelta(store, blobID)) {
+            byte[] stored = store.read(ObjectStore.Type.BLOB, blobID);
+            if (Delta.isDelta(stored, blobID)) {
+                stack.push(Map.entry(ObjectStore.Type.BLOB, Delta.getBase(stored)));
+            }
+        } else if (Chunker.mayBeManifest(store, blobID)) {
+            byte[] stored = store.read(ObjectStore.Type.BLOB, blobID);
+            if (Chunker.isManifest(stored, blobID)) {
+                push(stack, ObjectStore.Type.CHUNK, Chunker.chunkIDs(stored));
+            }
+        }
+    }
+
+    /**
+     * Helper function for push the objects of the type.
+     */
+    private static void push(Deque<Map.Entry<ObjectStore.Type, String>> stack,
+                             ObjectStore.Type type, Collection<String> ids) {
+        for (String id : ids) {
+            stack.push(Map.entry(type, id));
+        }
+    }
+}
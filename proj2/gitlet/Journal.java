@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * The journal of the metadata files, Branches, Stage_Add, Stage_REMOVAL and HEAD.
+ * A command doesn't write them directly, the new contents are kept in memory until the command
+ * ends, then all of them are committed together:
+ * 1. the loose objects written by the command are synced, see ObjectStore.syncWritten,
+ * 2. the new contents are written to Journal.tmp, which is synced to the disk,
+ * 3. Journal.tmp is renamed to Journal and the .gitlet directory is synced,
+ *    from now on the changes are committed,
+ * 4. every file is written to a temp file and renamed over the old one,
+ * 5. the files and the directory are synced, then Journal is deleted.
+ * If gitlet stops before 3, nothing is changed, if it stops after 3, the next command finds
+ * the journal and writes the files again, so a crash never leaves the files half written,
+ * the branches out of step with HEAD, or a branch pointing to an object not on the disk.
+ * The journal is only deleted when the files it wrote are on the disk, writing them again
+ * is harmless, so the journal can be replayed any number of times.
+ * <p>
+ * The journal format, the checksum is the sha1 hash of all the bytes before it:
+ * MAGIC | VERSION | count | (file name | length | content) * count | checksum
+ *
+ * @author GreyQian
+ */
+class Journal {
+    /**
+     * The committed journal, it only exists while the files are being written.
+     */
+    static final File JOURNAL = join(Repository.GITLET_DIR, "Journal");
+    /**
+     * The journal being written.
+     */
+    private static final File TEMP = join(Repository.GITLET_DIR, "Journal.tmp");
+    /**
+     * The magic number of the journal, "GJNL".
+     */
+    private static final int MAGIC = 0x474a4e4c;
+    /**
+     * The version of the journal format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The new contents of the files changed by the command, not committed yet.
+     */
+    private static final Map<File, byte[]> PENDING = new LinkedHashMap<>();
+
+    /**
+     * Write the content to the file when the command is committed.
+     */
+    static void write(File file, byte[] content) {
+        PENDING.put(file, content);
+    }
+
+    /**
+     * Write the string to the file when the command is committed.
+     */
+    static void write(File file, String content) {
+        write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Check weather the file has a new content not committed yet.
+     */
+    static boolean isPending(File file) {
+        return PENDING.containsKey(file);
+    }
+
+    /**
+     * Read the file, the new content if the command has written it.
+     */
+    static byte[] read(File file) {
+        byte[] content = PENDING.get(file);
+        return content != null ? content : readContents(file);
+    }
+
+    /**
+     * Read the file as a string, the new content if the command has written it.
+     */
+    static String readString(File file) {
+        return new String(read(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Commit all the files written by the command, with one fsync.
+     */
+    static void commit() {
+        // the objects the new files point to are on the disk first
+        ObjectStore.syncWritten();
+        if (PENDING.isEmpty()) {
+            return;
+        }
+        byte[] body = encode(PENDING);
+        try (FileOutputStream out = new FileOutputStream(TEMP)) {
+            out.write(body);
+            out.write(MyUtils.idToBytes(sha1(body)));
+            out.getChannel().force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        MyUtils.moveFile(TEMP, JOURNAL);
+        MyUtils.syncFile(Repository.GITLET_DIR);
+        apply(PENDING);
+        checkpoint(PENDING);
+        PENDING.clear();
+    }
+
+    /**
+     * Drop the files written by the command, used when the command failed.
+     */
+    static void abort() {
+        PENDING.clear();
+    }
+
+    /**
+     * Finish the journal left by a command that stopped while writing the files.
+     * A journal that isn't complete was never committed and is dropped.
+     */
+    static void recover() {
+        if (TEMP.exists()) {
+            TEMP.delete();
+        }
+        if (!JOURNAL.exists()) {
+            return;
+        }
+        Map<File, byte[]> files = decode(readContents(JOURNAL));
+        if (files == null) {
+            JOURNAL.delete();
+            return;
+        }
+        apply(files);
+        checkpoint(files);
+    }
+
+    /**
+     * Helper function for replace every file with its new content.
+     */
+    private static void apply(Map<File, byte[]> files) {
+        for (Map.Entry<File, byte[]> entry : files.entrySet()) {
+            File file = entry.getKey();
+            File temp = join(file.getParentFile(), file.getName() + ".tmp");
+            writeContents(temp, entry.getValue());
+            MyUtils.moveFile(temp, file);
+        }
+    }
+
+    /**
+     * Helper function for sync the files written by the journal and the directory,
+     * and then delete the journal, it's no longer needed to replay them.
+     */
+    private static void checkpoint(Map<File, byte[]> files) {
+        for (File file : files.keySet()) {
+            MyUtils.syncFile(file);
+        }
+        MyUtils.syncFile(Repository.GITLET_DIR);
+        JOURNAL.delete();
+    }
+
+    /**
+     * Helper function for encode the files, without the checksum.
+     */
+    private static byte[] encode(Map<File, byte[]> files) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            BinaryFormat.writeVarInt(out, files.size());
+            for (Map.Entry<File, byte[]> entry : files.entrySet()) {
+                BinaryFormat.writeString(out, entry.getKey().getName());
+                BinaryFormat.writeVarInt(out, entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Helper function for decode the journal, return null if it's not complete.
+     */
+    private static Map<File, byte[]> decode(byte[] journal) {
+        int bodyLength = journal.length - 20;
+        if (bodyLength < 0) {
+            return null;
+        }
+        byte[] body = Arrays.copyOf(journal, bodyLength);
+        byte[] checksum = Arrays.copyOfRange(journal, bodyLength, journal.length);
+        if (!Arrays.equals(MyUtils.idToBytes(sha1(body)), checksum)) {
+            return null;
+        }
+        Map<File, byte[]> files = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            BinaryFormat.checkHeader(in, MAGIC, VERSION);
+            int count = BinaryFormat.readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                File file = join(Repository.GITLET_DIR, BinaryFormat.readString(in));
+                byte[] content = new byte[BinaryFormat.readVarInt(in)];
+                in.readFully(content);
+                files.put(file, content);
+            }
+        } catch (IOException | GitletException excp) {
+            return null;
+        }
+        return files;
+    }
+}
@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * The writer of the log and global-log output.
+ * The commits are collected in a buffer and written to the standard output in large pieces,
+ * instead of one flush for every line. After every piece it checks weather the standard
+ * output is closed, like when the log is piped into head, then the walk stops.
+ * <p>
+ * The limits of the log:
+ * -n COUNT       show at most COUNT commits
+ * --since DATE   show only the commits made at or after DATE, yyyy-MM-dd [HH:mm:ss],
+ *                in the same time zone the log shows
+ *
+ * @author GreyQian
+ */
+class LogWriter {
+    /**
+     * The buffer is written out when it has this many chars.
+     */
+    private static final int FLUSH_SIZE = 16 * 1024;
+
+    /**
+     * The standard output when the writer is created.
+     */
+    private final PrintStream out = System.out;
+    /**
+     * The commits not written out yet.
+     */
+    private final StringBuilder buffer = new StringBuilder();
+    /**
+     * How many more commits can be shown.
+     */
+    private int remaining = Integer.MAX_VALUE;
+    /**
+     * The earliest time of the commits shown, null if not limited.
+     */
+    private Date since = null;
+    /**
+     * Weather the standard output is closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Create the writer with the limits in ARGS, the arguments after the command.
+     * Exit with Incorrect operands if they are not valid.
+     */
+    static LogWriter of(String[] args) {
+        LogWriter writer = new LogWriter();
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                MyUtils.exit("Incorrect operands.");
+            }
+            if (args[i].equals("-n")) {
+                writer.remaining = parseCount(args[i + 1]);
+            } else if (args[i].equals("--since")) {
+                writer.since = parseDate(args[i + 1]);
+            } else {
+                MyUtils.exit("Incorrect operands.");
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * Check weather the commit is made before the since limit.
+     */
+    boolean isBefore(Commit commit) {
+        return since != null && commit.getTimestamp().before(since);
+    }
+
+    /**
+     * Check weather no more commits should be written, the count is reached or the output is closed.
+     */
+    boolean isDone() {
+        return remaining <= 0 || closed;
+    }
+
+    /**
+     * Write the commit, in the same format as println of the commit.
+     */
+    void write(Commit commit) {
+        buffer.append(commit.toString()).append(System.lineSeparator());
+        remaining--;
+        if (buffer.length() >= FLUSH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Write out the buffer, and check weather the output is closed.
+     */
+    void flush() {
+        out.print(buffer);
+        buffer.setLength(0);
+        closed = out.checkError();
+    }
+
+    /**
+     * Helper function for parse the -n count.
+     */
+    private static int parseCount(String count) {
+        try {
+            int n = Integer.parseInt(count);
+            if (n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the error
+        }
+        MyUtils.exit("Incorrect operands.");
+        return 0;
+    }
+
+    /**
+     * Helper function for parse the --since date.
+     */
+    private static Date parseDate(String date) {
+        for (String pattern : new String[]{"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"}) {
+            SimpleDateFormat formatter = new SimpleDateFormat(pattern);
+            formatter.setTimeZone(TimeZone.getTimeZone("GMT-08:00"));
+            formatter.setLenient(false);
+            ParsePosition position = new ParsePosition(0);
+            Date parsed = formatter.parse(date, position);
+            if (parsed != null && position.getIndex() == date.length()) {
+                return parsed;
+            }
+        }
+        MyUtils.exit("Incorrect operands.");
+        return null;
+    }
+}
@@ -1,5 +1,6 @@
 package gitlet;
 
+import java.util.Arrays;
 
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
@@ -11,8 +12,45 @@ public class Main {
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
      * <COMMAND> <OPERAND1> <OPERAND2> ...
+     * If a gitlet daemon serves this repository, the command is run by the daemon.
      */
     public static void main(String[] args) {
+        if (args.length > 0 && !args[0].equals("init") && !args[0].equals("daemon")
+                && Daemon.SOCKET.exists() && Daemon.forward(args)) {
+            return;
+        }
+        try {
+            run(args);
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Run the command given by ARGS in this process.
+     */
+    static void run(String[] args) {
+        try {
+            runCommand(args);
+        } catch (GitletException excp) {
+            // a message like Current branch fast-forwarded. also ends a command,
+            // the changes made before it are kept
+            Repository.saveChanges();
+            throw excp;
+        }
+        Repository.saveChanges();
+        StatIndex.save();
+        WorkTree.save();
+        if (Boolean.parseBoolean(Config.get("stats", "false"))) {
+            System.err.println(CommitCache.stats());
+        }
+    }
+
+    /**
+     * Helper function for run the command, the changes to the metadata are saved by run.
+     */
+    private static void runCommand(String[] args) {
         // what if args is empty?
         if (args.length < 1) {
             MyUtils.exit("Please enter a command.");
@@ -25,9 +63,11 @@ public class Main {
                 Repository.init();
                 break;
             case "add":
-                MyUtils.validateOperands(args, 2);
+                if (args.length < 2) {
+                    MyUtils.exit("Incorrect operands.");
+                }
                 Repository.checkWorkingDirectory();
-                Repository.add(args[1]);
+                Repository.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
                 MyUtils.validateOperands(args, 2);
@@ -40,19 +80,24 @@ public class Main {
                 Repository.rm(args[1]);
                 break;
             case "log":
-                MyUtils.validateOperands(args, 1);
+                LogWriter logWriter = LogWriter.of(args);
                 Repository.checkWorkingDirectory();
-                Repository.log();
+                Repository.log(logWriter);
                 break;
             case "global-log":
-                MyUtils.validateOperands(args, 1);
+                LogWriter globalLogWriter = LogWriter.of(args);
                 Repository.checkWorkingDirectory();
-                Repository.globalLog();
+                Repository.globalLog(globalLogWriter);
                 break;
             case "find":
+                if (args.length == 3) {
+                    Repository.checkWorkingDirectory();
+                    Repository.find(args[1], args[2]);
+                    break;
+                }
                 MyUtils.validateOperands(args, 2);
                 Repository.checkWorkingDirectory();
-                Repository.find(args[1]);
+                Repository.find(null, args[1]);
                 break;
             case "status":
                 MyUtils.validateOperands(args, 1);
@@ -83,6 +128,68 @@ public class Main {
                 MyUtils.validateOperands(args, 2);
                 Repository.merge(args[1]);
                 break;
+            case "add-remote":
+                Repository.checkWorkingDirectory();
+                MyUtils.validateOperands(args, 3);
+                Repository.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                Repository.checkWorkingDirectory();
+                MyUtils.validateOperands(args, 2);
+                Repository.rmRemote(args[1]);
+                break;
+            case "fetch":
+                Repository.checkWorkingDirectory();
+                MyUtils.validateOperands(args, 3);
+                Repository.fetch(args[1], args[2]);
+                break;
+            case "push":
+                Repository.checkWorkingDirectory();
+                MyUtils.validateOperands(args, 3);
+                Repository.push(args[1], args[2]);
+                break;
+            case "pull":
+                Repository.checkWorkingDirectory();
+                MyUtils.validateOperands(args, 3);
+                Repository.pull(args[1], args[2]);
+                break;
+            case "clone":
+                MyUtils.validateOperands(args, 2);
+                Repository.clone(args[1]);
+                break;
+            case "sparse-checkout":
+                Repository.checkWorkingDirectory();
+                Repository.sparseCheckout(args);
+                break;
+            case "diff":
+                Repository.checkWorkingDirectory();
+                Repository.diff(args);
+                break;
+            case "gc":
+                Repository.checkWorkingDirectory();
+                MyUtils.validateOperands(args, 1);
+                Repository.gc();
+                break;
+            case "fsck":
+                Repository.checkWorkingDirectory();
+                MyUtils.validateOperands(args, 1);
+                Repository.fsck();
+                break;
+            case "repack":
+                Repository.checkWorkingDirectory();
+                MyUtils.validateOperands(args, 1);
+                Repository.repack();
+                break;
+            case "daemon":
+                Repository.checkWorkingDirectory();
+                if (args.length == 1) {
+                    Daemon.serve();
+                } else if (args.length == 2 && args[1].equals("stop")) {
+                    Daemon.stop();
+                } else {
+                    MyUtils.exit("Incorrect operands.");
+                }
+                break;
             default:
                 MyUtils.exit("No command with that name exists.");
         }
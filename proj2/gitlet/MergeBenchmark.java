@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Time the three way merge of large files.
+ * Usage: java gitlet.MergeBenchmark [lines] [edits] [rounds]
+ * The base is a text file of LINES lines, every branch edits EDITS places of it, replacing,
+ * adding or deleting a few lines, and some of the places are the same in the two branches,
+ * so some of the chunks conflict. The benchmark reports the time of the diff of the base
+ * with a branch and of the whole merge, and the memory used by a merge.
+ *
+ * @author GreyQian
+ */
+public class MergeBenchmark {
+
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        Random random = new Random(17);
+        List<String> base = baseLines(random, lines);
+        byte[] baseContent = join(base);
+        byte[] current = join(edit(base, random, edits, 7));
+        byte[] given = join(edit(base, random, edits, 11));
+
+        // warm up before timing
+        Diff3.merge(baseContent, current, given);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            Map<String, Integer> table = new HashMap<>();
+            Diff.match(ids(baseContent, table), ids(current, table));
+        }
+        double diff = (System.nanoTime() - start) / 1e9 / rounds;
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        start = System.nanoTime();
+        Diff3.Result result = null;
+        for (int i = 0; i < rounds; i++) {
+            result = Diff3.merge(baseContent, current, given);
+        }
+        double merge = (System.nanoTime() - start) / 1e9 / rounds;
+        long peak = runtime.totalMemory() - runtime.freeMemory() - used;
+
+        System.out.printf("base: %d lines, %d bytes, %d edits per branch%n",
+                lines, baseContent.length, edits);
+        System.out.printf("diff:  %8.1f ms%n", diff * 1000);
+        System.out.printf("merge: %8.1f ms, %d conflicts, %d bytes merged%n",
+                merge * 1000, result.getConflicts(), result.getContent().length);
+        System.out.printf("heap after merging: %.1f MB%n", peak / 1e6);
+    }
+
+    /**
+     * Returns the lines of the base, source-like lines which are mostly different.
+     */
+    private static List<String> baseLines(Random random, int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add("    line " + i + " value " + random.nextInt(1_000_000) + ";\n");
+        }
+        return lines;
+    }
+
+    /**
+     * Returns a copy of the base with EDITS places edited. The places are picked by a random
+     * of the given seed, and a third of them by a shared one, so the branches edit some
+     * places both.
+     */
+    private static List<String> edit(List<String> base, Random random, int edits, int seed) {
+        Random own = new Random(seed);
+        Random shared = new Random(3);
+        List<String> lines = new ArrayList<>(base);
+        for (int e = 0; e < edits; e++) {
+            Random place = e % 3 == 0 ? shared : own;
+            int at = place.nextInt(lines.size());
+            switch (random.nextInt(3)) {
+                case 0:
+                    lines.set(at, "    changed " + random.nextInt() + ";\n");
+                    break;
+                case 1:
+                    lines.add(at, "    added " + random.nextInt() + ";\n");
+                    break;
+                default:
+                    lines.remove(at);
+                    break;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Helper function for join the lines to the content of a file.
+     */
+    private static byte[] join(List<String> lines) {
+        return String.join("", lines).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper function for get the line ids of a content, with the shared table.
+     */
+    private static int[] ids(byte[] content, Map<String, Integer> table) {
+        return Diff.toIDs(Diff.splitLines(content), table);
+    }
+}
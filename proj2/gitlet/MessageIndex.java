@@ -0,0 +1,543 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * The index of the commit messages, so find doesn't read every commit.
+ * Like CommitIndex, the file is mapped in memory and searched in place, nothing is read
+ * or tokenized again when a process starts. The file format:
+ * MAGIC | VERSION | message count | term count | id count | posting count | strings length |
+ * message * message count | term * term count | id * id count | posting * posting count |
+ * strings | new record * m
+ * <p>
+ * A message or a term is 4 ints: the offset and the length of its UTF-8 bytes in the strings,
+ * and the start and the count of its commit ids or postings. The messages and the terms are
+ * sorted by their bytes, so they are binary searched. A term is a token of a message, the
+ * lowercase runs of letters and digits, or a trigram, 3 chars in a row of it, and its postings
+ * are the numbers of the messages that have it, in order. A token query intersects the postings
+ * of its tokens, a substring query intersects the postings of its trigrams and then checks
+ * the few messages left, only a query shorter than a trigram checks every message.
+ * <p>
+ * A new record is (message | commit id), see BinaryFormat, they are appended unsorted when
+ * a commit is saved and checked one by one, when there are MAX_NEW of them the whole file
+ * is written again. If the file doesn't exist or is in an older format, it's built from
+ * all the commits in the object store.
+ *
+ * @author GreyQian
+ */
+class MessageIndex {
+    /**
+     * The file that store the index.
+     */
+    static final File INDEX = join(Repository.GITLET_DIR, "MessageIndex");
+    /**
+     * The magic number at the beginning of the file, "GMSG".
+     */
+    private static final int MAGIC = 0x474d5347;
+    /**
+     * The version of the file format, the version 1 has only the records.
+     */
+    private static final int VERSION = 2;
+    /**
+     * The size of the magic, version, the counts and the strings length.
+     */
+    private static final int HEADER = 7 * 4;
+    /**
+     * The size of a message or a term in its table.
+     */
+    private static final int RECORD = 4 * 4;
+    /**
+     * The size of an id.
+     */
+    private static final int ID_SIZE = UID_LENGTH / 2;
+    /**
+     * The length of the n-grams for the substring queries.
+     */
+    private static final int GRAM_LENGTH = 3;
+    /**
+     * The first char of a token term.
+     */
+    private static final char TOKEN = 'T';
+    /**
+     * The first char of a trigram term.
+     */
+    private static final char GRAM = 'G';
+    /**
+     * When there are this many new records, the file is written again.
+     */
+    private static final int MAX_NEW = 1024;
+
+    /**
+     * The index file mapped in memory, null if it's not loaded.
+     */
+    private static MappedByteBuffer buffer = null;
+    /**
+     * The number of the sorted messages.
+     */
+    private static int messageCount;
+    /**
+     * The number of the sorted terms.
+     */
+    private static int termCount;
+    /**
+     * Where the terms, the ids, the postings and the strings start in the file.
+     */
+    private static int termStart;
+    private static int idStart;
+    private static int postingStart;
+    private static int stringStart;
+    /**
+     * The commit ids of every message in the new records.
+     */
+    private static Map<String, SortedSet<String>> newCommits;
+    /**
+     * The number of the new records.
+     */
+    private static int newCount;
+    /**
+     * The length of the file that is loaded, the index is loaded again if the file is changed.
+     */
+    private static long loadedLength = 0;
+
+    /**
+     * Add a saved commit to the index, if it isn't there.
+     */
+    static void add(String message, String commitID) {
+        if (findExact(message).contains(commitID)) {
+            return;
+        }
+        if (newCount >= MAX_NEW) {
+            Map<String, SortedSet<String>> records = allRecords();
+            records.computeIfAbsent(message, m -> new TreeSet<>()).add(commitID);
+            write(records);
+        } else {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(INDEX, true)))) {
+                writeRecord(out, message, commitID);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        buffer = null;
+    }
+
+    /**
+     * Append the new commits of another repository to its index, like after a push,
+     * the commits are read from this repository which sent them.
+     * They are new records, the index is written again by an add in that repository.
+     * Nothing is done if the index doesn't exist, it's built with the commits when it's used.
+     */
+    static void appendTo(File gitletDir, List<String> commitIDs) {
+        File index = join(gitletDir, INDEX.getName());
+        if (!index.isFile()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(index, true)))) {
+            for (String commitID : commitIDs) {
+                writeRecord(out, Commit.getCommit(commitID).getMessage(), commitID);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Get the ids of the commits with exactly the message, in lexicographic order.
+     */
+    static SortedSet<String> findExact(String message) {
+        load();
+        SortedSet<String> ids = new TreeSet<>();
+        int number = search(HEADER, messageCount, message);
+        if (number >= 0) {
+            addIDs(number, ids);
+        }
+        ids.addAll(newCommits.getOrDefault(message, Collections.emptySortedSet()));
+        return ids;
+    }
+
+    /**
+     * Get the ids of the commits whose message contains the text, in lexicographic order.
+     * The candidates are the messages having every trigram of the text, and only they
+     * are checked, the commits are not read.
+     */
+    static SortedSet<String> findSubstring(String text) {
+        load();
+        int[] candidates = null;
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            candidates = intersect(candidates, postings(GRAM + text.substring(i, i + GRAM_LENGTH)));
+        }
+        if (candidates == null) {
+            // shorter than a trigram, every message is a candidate
+            candidates = new int[messageCount];
+            for (int i = 0; i < messageCount; i++) {
+                candidates[i] = i;
+            }
+        }
+
+        SortedSet<String> ids = new TreeSet<>();
+        for (int number : candidates) {
+            if (getMessage(number).contains(text)) {
+                addIDs(number, ids);
+            }
+        }
+        for (Map.Entry<String, SortedSet<String>> entry : newCommits.entrySet()) {
+            if (entry.getKey().contains(text)) {
+                ids.addAll(entry.getValue());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Get the ids of the commits whose message has all the tokens of the query,
+     * in lexicographic order. The tokens are case insensitive.
+     */
+    static SortedSet<String> findTokens(String query) {
+        load();
+        SortedSet<String> ids = new TreeSet<>();
+        Set<String> queryTokens = tokenize(query);
+        if (queryTokens.isEmpty()) {
+            return ids;
+        }
+        int[] messages = null;
+        for (String token : queryTokens) {
+            messages = intersect(messages, postings(TOKEN + token));
+        }
+        for (int number : messages) {
+            addIDs(number, ids);
+        }
+        for (Map.Entry<String, SortedSet<String>> entry : newCommits.entrySet()) {
+            if (tokenize(entry.getKey()).containsAll(queryTokens)) {
+                ids.addAll(entry.getValue());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Helper function for split the text into lowercase tokens of letters and digits.
+     */
+    private static Set<String> tokenize(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Helper function for get the terms of a message, its tokens and its trigrams.
+     */
+    private static Set<String> getTerms(String message) {
+        Set<String> terms = new HashSet<>();
+        for (String token : tokenize(message)) {
+            terms.add(TOKEN + token);
+        }
+        for (int i = 0; i + GRAM_LENGTH <= message.length(); i++) {
+            terms.add(GRAM + message.substring(i, i + GRAM_LENGTH));
+        }
+        return terms;
+    }
+
+    /**
+     * Helper function for binary search the sorted table for the string,
+     * return its number or -1 if it's not there.
+     */
+    private static int search(int table, int count, String s) {
+        byte[] key = s.getBytes(StandardCharsets.UTF_8);
+        int from = 0;
+        int to = count;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            int cmp = Arrays.compareUnsigned(getBytes(table + mid * RECORD), key);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper function for get the numbers of the messages having the term, in order.
+     */
+    private static int[] postings(String term) {
+        int number = search(termStart, termCount, term);
+        if (number < 0) {
+            return new int[0];
+        }
+        int record = termStart + number * RECORD;
+        int start = buffer.getInt(record + 8);
+        int[] result = new int[buffer.getInt(record + 12)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = buffer.getInt(postingStart + (start + i) * 4);
+        }
+        return result;
+    }
+
+    /**
+     * Helper function for intersect two sorted postings, A is null for all the messages.
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        if (a == null) {
+            return b;
+        }
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Helper function for read the string bytes of a message or a term record.
+     */
+    private static byte[] getBytes(int record) {
+        byte[] bytes = new byte[buffer.getInt(record + 4)];
+        buffer.get(stringStart + buffer.getInt(record), bytes);
+        return bytes;
+    }
+
+    /**
+     * Helper function for get the sorted message of the number.
+     */
+    private static String getMessage(int number) {
+        return new String(getBytes(HEADER + number * RECORD), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper function for add the commit ids of the sorted message to the set.
+     */
+    private static void addIDs(int number, Set<String> ids) {
+        int record = HEADER + number * RECORD;
+        int start = buffer.getInt(record + 8);
+        int count = buffer.getInt(record + 12);
+        byte[] id = new byte[ID_SIZE];
+        for (int i = 0; i < count; i++) {
+            buffer.get(idStart + (start + i) * ID_SIZE, id);
+            ids.add(MyUtils.bytesToID(id));
+        }
+    }
+
+    /**
+     * Helper function for get all the records in the index, the sorted and the new ones.
+     */
+    private static Map<String, SortedSet<String>> allRecords() {
+        Map<String, SortedSet<String>> records = new HashMap<>();
+        for (int i = 0; i < messageCount; i++) {
+            SortedSet<String> ids = new TreeSet<>();
+            addIDs(i, ids);
+            records.put(getMessage(i), ids);
+        }
+        for (Map.Entry<String, SortedSet<String>> entry : newCommits.entrySet()) {
+            records.computeIfAbsent(entry.getKey(), m -> new TreeSet<>()).addAll(entry.getValue());
+        }
+        return records;
+    }
+
+    /**
+     * Build the index again from the commits in the object store,
+     * like after some commits are removed from it.
+     */
+    static void rebuild() {
+        buffer = null;
+        INDEX.delete();
+        load();
+    }
+
+    /**
+     * Helper function for load the index, build it if the file doesn't exist
+     * or is written by an older version.
+     */
+    private static void load() {
+        if (buffer != null && INDEX.length() == loadedLength) {
+            return;
+        }
+        if (!INDEX.exists()) {
+            build();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(INDEX.toPath())) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (buffer.capacity() < 4 || buffer.getInt(0) != MAGIC) {
+            throw error("Bad message index.");
+        }
+        // the version 1 wrote the version as a byte, and had no tables
+        if (buffer.capacity() < HEADER || buffer.getInt(4) != VERSION) {
+            build();
+            return;
+        }
+        messageCount = buffer.getInt(8);
+        termCount = buffer.getInt(12);
+        termStart = HEADER + messageCount * RECORD;
+        idStart = termStart + termCount * RECORD;
+        postingStart = idStart + buffer.getInt(16) * ID_SIZE;
+        stringStart = postingStart + buffer.getInt(20) * 4;
+        readNewRecords(stringStart + buffer.getInt(24));
+        loadedLength = buffer.capacity();
+    }
+
+    /**
+     * Helper function for read the new records after the sorted part.
+     */
+    private static void readNewRecords(int start) {
+        newCommits = new HashMap<>();
+        newCount = 0;
+        byte[] bytes = new byte[buffer.capacity() - start];
+        buffer.get(start, bytes);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            while (in.available() > 0) {
+                String message = BinaryFormat.readString(in);
+                newCommits.computeIfAbsent(message, m -> new TreeSet<>()).add(BinaryFormat.readID(in));
+                newCount++;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Helper function for build the index from all the commits in the object store.
+     */
+    private static void build() {
+        Map<String, SortedSet<String>> records = new HashMap<>();
+        for (String commitID : Repository.OBJECTS.list(ObjectStore.Type.COMMIT)) {
+            Commit commit = Commit.getCommit(commitID);
+            if (commit != null) {
+                records.computeIfAbsent(commit.getMessage(), m -> new TreeSet<>()).add(commitID);
+            }
+        }
+        write(records);
+        buffer = null;
+        load();
+    }
+
+    /**
+     * Helper function for write the records as the whole index, with no new records.
+     * The file is written aside and moved in, so a reader never sees half of it.
+     */
+    private static void write(Map<String, SortedSet<String>> records) {
+        List<String> messages = sortByBytes(records.keySet());
+        Map<String, List<Integer>> postings = new HashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            for (String term : getTerms(messages.get(i))) {
+                postings.computeIfAbsent(term, t -> new ArrayList<>()).add(i);
+            }
+        }
+        List<String> terms = sortByBytes(postings.keySet());
+
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        int[] messageOffsets = addStrings(strings, messages);
+        int[] termOffsets = addStrings(strings, terms);
+        int idCount = 0;
+        for (String message : messages) {
+            idCount += records.get(message).size();
+        }
+        int postingCount = 0;
+        for (String term : terms) {
+            postingCount += postings.get(term).size();
+        }
+
+        File temp = join(Repository.GITLET_DIR, "MessageIndex.tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(messages.size());
+            out.writeInt(terms.size());
+            out.writeInt(idCount);
+            out.writeInt(postingCount);
+            out.writeInt(strings.size());
+
+            int start = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                int count = records.get(messages.get(i)).size();
+                out.writeInt(messageOffsets[i]);
+                out.writeInt(messageOffsets[i + 1] - messageOffsets[i]);
+                out.writeInt(start);
+                out.writeInt(count);
+                start += count;
+            }
+            start = 0;
+            for (int i = 0; i < terms.size(); i++) {
+                int count = postings.get(terms.get(i)).size();
+                out.writeInt(termOffsets[i]);
+                out.writeInt(termOffsets[i + 1] - termOffsets[i]);
+                out.writeInt(start);
+                out.writeInt(count);
+                start += count;
+            }
+            for (String message : messages) {
+                for (String id : records.get(message)) {
+                    BinaryFormat.writeID(out, id);
+                }
+            }
+            for (String term : terms) {
+                for (int number : postings.get(term)) {
+                    out.writeInt(number);
+                }
+            }
+            strings.writeTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        MyUtils.moveFile(temp, INDEX);
+    }
+
+    /**
+     * Helper function for put the UTF-8 bytes of the strings one after another,
+     * return the offset of every string and the end of the last one.
+     */
+    private static int[] addStrings(ByteArrayOutputStream out, List<String> strings) {
+        int[] offsets = new int[strings.size() + 1];
+        for (int i = 0; i < strings.size(); i++) {
+            offsets[i] = out.size();
+            out.writeBytes(strings.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        offsets[strings.size()] = out.size();
+        return offsets;
+    }
+
+    /**
+     * Helper function for sort the strings by their UTF-8 bytes, the order they are searched in.
+     */
+    private static List<String> sortByBytes(Collection<String> strings) {
+        List<String> sorted = new ArrayList<>(strings);
+        sorted.sort((a, b) -> Arrays.compareUnsigned(
+                a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8)));
+        return sorted;
+    }
+
+    /**
+     * Helper function for write a record.
+     */
+    private static void writeRecord(DataOutputStream out, String message, String commitID)
+            throws IOException {
+        BinaryFormat.writeString(out, message);
+        BinaryFormat.writeID(out, commitID);
+    }
+}
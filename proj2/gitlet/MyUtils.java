@@ -1,18 +1,53 @@
 package gitlet;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static gitlet.Utils.*;
 
 public class MyUtils {
     /**
-     * Print the error message and exit with code 0.
+     * The max length of a delta chain, a deeper blob is stored in full.
+     */
+    private static final int MAX_DELTA_DEPTH = 10;
+    /**
+     * The files larger than this are streamed into chunks, see Chunker, only the smaller ones
+     * are read in memory and may be stored as deltas. The files are saved on the worker threads,
+     * so the memory used by add is at most the number of threads times this.
+     */
+    private static final int MAX_DELTA_SIZE = 1024 * 1024;
+    /**
+     * The size of the chunks when a file is streamed.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * The digits of the hex ids.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Stop the command with the error message.
+     * Main prints the message and exit with code 0, the daemon prints it and goes on.
      */
     public static void exit(String log) {
-        System.out.println(log);
-        System.exit(0);
+        throw new GitletException(log);
     }
 
     /**
@@ -20,9 +55,24 @@ public class MyUtils {
      */
     public static void validateOperands(String[] args, int operandsNumber) {
         if (args.length != operandsNumber) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            exit("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Get a stamp of the files' size and modified time, it changes when any of them changes.
+     */
+    public static String getStamp(File... files) {
+        StringBuilder sb = new StringBuilder();
+        for (File file : files) {
+            try {
+                long mtime = Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+                sb.append(file.length()).append(':').append(mtime).append(';');
+            } catch (IOException e) {
+                sb.append("-;");
+            }
         }
+        return sb.toString();
     }
 
     /**
@@ -30,6 +80,10 @@ public class MyUtils {
      */
     public static void createFile(File file) {
         if (!file.exists()) {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
             try {
                 file.createNewFile();
             } catch (IOException e) {
@@ -38,26 +92,244 @@ public class MyUtils {
         }
     }
 
+    /**
+     * Move the file to the target atomically, replace the target if it exists.
+     */
+    public static void moveFile(File source, File target) {
+        try {
+            Files.move(source.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sync the file to the disk. A directory is synced too, so the files renamed into it
+     * are kept after a crash; a system that can't open a directory skips it.
+     */
+    public static void syncFile(File file) {
+        boolean isDir = file.isDirectory();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                isDir ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!isDir) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     /**
      * Get the file's sha1 hashcode based it's content.
+     * The file is read in chunks, so the memory use doesn't grow with the file size.
      */
     public static String getFileHash(File file) {
-        byte[] content = readContents(file);
-        return sha1(content);
+        return streamFile(file, null);
+    }
+
+    /**
+     * Read the file chunk by chunk through one sha1 digest, and return the hashcode.
+     * If OUT is not null, every chunk is copied to it in the same pass.
+     */
+    private static String streamFile(File file, OutputStream out) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+                if (out != null) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            return bytesToID(md.digest());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
     }
 
     /**
      * Save the blobs files, and return its hashcode.
      */
     public static String saveBlobFile(File file) {
-        byte[] content = readContents(file);
+        return saveBlobFile(file, null);
+    }
+
+    /**
+     * Save the blobs files as a delta against the base blob if it's worth, and return its hashcode.
+     * The base is usually the previous version of the same file, it can be null.
+     * A file larger than MAX_DELTA_SIZE is saved as chunks instead, see Chunker.
+     */
+    public static String saveBlobFile(File file, String baseHash) {
+        if (file.length() <= MAX_DELTA_SIZE) {
+            byte[] content = readContents(file);
+            return saveBlob(Repository.OBJECTS, content, baseHash);
+        }
+
+        // a large file is hashed and cut into chunks in one pass,
+        // the chunks it shares with the other files and versions are stored once
+        return Chunker.save(Repository.OBJECTS, file);
+    }
+
+    /**
+     * Save the content as a blob in the store, and return its hashcode.
+     * The blob is stored as a delta against the base when the base is not too deep
+     * in its own chain and the delta is less than half of the content.
+     */
+    public static String saveBlob(ObjectStore store, byte[] content, String baseHash) {
         String hash = sha1(content);
-        File blobFile = join(Repository.BLOBS, hash);
-        createFile(blobFile);
-        writeContents(blobFile, content);
+        if (store.contains(ObjectStore.Type.BLOB, hash)) {
+            return hash;
+        }
+
+        byte[] stored = content;
+        if (baseHash != null && content.length <= MAX_DELTA_SIZE) {
+            byte[] base = store.read(ObjectStore.Type.BLOB, baseHash);
+            if (base != null && base.length <= MAX_DELTA_SIZE
+                    && !Chunker.isManifest(base, baseHash)) {
+                int depth = Delta.isDelta(base, baseHash) ? Delta.getDepth(base) + 1 : 1;
+                if (depth <= MAX_DELTA_DEPTH) {
+                    byte[] baseContent = readBlob(store, baseHash);
+                    byte[] delta = Delta.encode(baseHash, depth, content,
+                            Delta.create(baseContent, content));
+                    if (delta.length < content.length / 2) {
+                        stored = delta;
+                    }
+                }
+            }
+        }
+        store.write(ObjectStore.Type.BLOB, hash, stored);
         return hash;
     }
 
+    /**
+     * Read the content of the blob given its hashcode.
+     */
+    public static byte[] readBlob(String hash) {
+        return readBlob(Repository.OBJECTS, hash);
+    }
+
+    /**
+     * Read the content of the blob in the store, rebuild it along the delta chain if it's a delta,
+     * or from its chunks if it's a manifest.
+     */
+    public static byte[] readBlob(ObjectStore store, String hash) {
+        Deque<byte[]> deltas = new ArrayDeque<>();
+        String id = hash;
+        byte[] stored = readStoredBlob(store, id);
+        if (Chunker.isManifest(stored, hash)) {
+            return Chunker.assemble(store, stored);
+        }
+        while (Delta.isDelta(stored, id)) {
+            deltas.push(stored);
+            id = Delta.getBase(stored);
+            stored = readStoredBlob(store, id);
+        }
+        while (!deltas.isEmpty()) {
+            stored = Delta.decode(stored, deltas.pop());
+        }
+        return stored;
+    }
+
+    /**
+     * Write the content of the blob to the file, replacing the file.
+     * A full blob is copied from the store with FileChannel.transferTo, without reading it
+     * into memory. If checkout.link is set in the config, a loose full blob is hard linked
+     * into place instead, sharing the content with the store, see ObjectStore.link.
+     * A chunked blob is copied chunk by chunk, a delta blob is rebuilt in memory.
+     */
+    public static void writeBlobFile(String hash, File file) {
+        ObjectStore store = Repository.OBJECTS;
+        // the old file may be linked to a blob, it's replaced, never written through
+        file.delete();
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        if (Delta.mayBeDelta(store, hash)) {
+            writeContents(file, readBlob(store, hash));
+            return;
+        }
+        byte[] manifest = Chunker.mayBeManifest(store, hash)
+                ? readStoredBlob(store, hash) : null;
+        boolean chunked = manifest != null && Chunker.isManifest(manifest, hash);
+        if (!chunked && Config.getBoolean("checkout.link", false)
+                && store.link(ObjectStore.Type.BLOB, hash, file)) {
+            return;
+        }
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (chunked) {
+                Chunker.transferTo(store, manifest, out);
+            } else {
+                store.transferTo(ObjectStore.Type.BLOB, hash, out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Read the blob as it's stored in the store, full, delta or manifest.
+     */
+    private static byte[] readStoredBlob(ObjectStore store, String hash) {
+        byte[] content = store.read(ObjectStore.Type.BLOB, hash);
+        if (content == null) {
+            throw error("Missing blob %s.", hash);
+        }
+        return content;
+    }
+
+    /**
+     * Check weather the string is a full sha1 id, 40 lowercase hex digits.
+     */
+    public static boolean isFullID(String id) {
+        if (id == null || id.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (Character.digit(id.charAt(i), 16) < 0 || Character.isUpperCase(id.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convert a full sha1 id to its 20 raw bytes.
+     */
+    public static byte[] idToBytes(String id) {
+        byte[] bytes = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (Character.digit(id.charAt(2 * i), 16) << 4
+                    | Character.digit(id.charAt(2 * i + 1), 16));
+        }
+        return bytes;
+    }
+
+    /**
+     * Convert 20 raw bytes back to a full sha1 id.
+     */
+    public static String bytesToID(byte[] bytes) {
+        char[] chars = new char[UID_LENGTH];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Get the paths of all plain files in the working directory and its sub directories,
+     * in lexicographic order, see WorkTree.
+     */
+    public static List<String> getWorkingFiles() {
+        return WorkTree.listFiles();
+    }
+
     /**
      * Helper function for iterator the set and print its content.
      */
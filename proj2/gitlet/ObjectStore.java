@@ -0,0 +1,543 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * The object store of a gitlet repository, it holds the commits, the trees, the blobs
+ * and the chunks of the large blobs.
+ * An object is loose, a file named by its sha1 id under the Commits, Trees, Blobs or Chunks folder,
+ * or packed, in one of the pack files under the Packs folder.
+ * New objects are always written loose, repack folds the loose objects into a pack,
+ * so the number of files in the store stays small.
+ * Reading an object looks the loose file first, then the packs.
+ * A loose object is compressed by the codec of the store, see Codec, the packs hold the objects
+ * as they are.
+ *
+ * @author GreyQian
+ */
+public class ObjectStore {
+    /**
+     * The kinds of objects, with the code used in the pack files
+     * and the folder their loose files live in.
+     */
+    public enum Type {
+        COMMIT(1, "Commits"),
+        BLOB(2, "Blobs"),
+        TREE(3, "Trees"),
+        CHUNK(4, "Chunks");
+
+        /**
+         * The code of the type in the pack files.
+         */
+        private final byte code;
+        /**
+         * The folder name of the loose objects.
+         */
+        private final String folder;
+
+        Type(int code, String folder) {
+            this.code = (byte) code;
+            this.folder = folder;
+        }
+
+        byte getCode() {
+            return code;
+        }
+
+        /**
+         * Get the type given its code.
+         */
+        static Type of(byte code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw error("Unknown object type %d.", code);
+        }
+    }
+
+    /**
+     * The order of the objects in a pack, by the id and then by the type.
+     * Objects of different types can have the same id, so an object is its type and id.
+     */
+    static final Comparator<Map.Entry<Type, String>> ORDER =
+            Map.Entry.<Type, String>comparingByValue().thenComparing(Map.Entry.comparingByKey());
+
+    /**
+     * When there are this many packs, repack merges all of them into one.
+     */
+    private static final int MAX_PACKS = 16;
+
+    /**
+     * The loose objects moved in by the command and not synced to the disk yet, of any store.
+     * The worker threads of add move objects in at the same time.
+     */
+    private static final Set<File> UNSYNCED = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * The .gitlet directory of the repository.
+     */
+    private final File gitletDir;
+    /**
+     * The folder that store the pack files.
+     */
+    private final File packsDir;
+    /**
+     * The packs of the store, loaded when first needed.
+     */
+    private List<PackFile> packs = null;
+    /**
+     * The stamp of the Packs folder when the packs are loaded.
+     */
+    private String packsStamp = null;
+    /**
+     * The codec of the new loose objects, the configured one if it's null.
+     */
+    private Codec codec;
+
+    public ObjectStore(File gitletDir) {
+        this(gitletDir, null);
+    }
+
+    /**
+     * Create the store which writes the loose objects with the codec.
+     */
+    ObjectStore(File gitletDir, Codec codec) {
+        this.gitletDir = gitletDir;
+        this.packsDir = join(gitletDir, "Packs");
+        this.codec = codec;
+    }
+
+    /**
+     * Get the loose file of the object, it may not exist.
+     */
+    public File looseFile(Type type, String id) {
+        return join(gitletDir, type.folder, id);
+    }
+
+    /**
+     * Check weather the store has the object.
+     */
+    public boolean contains(Type type, String id) {
+        if (looseFile(type, id).isFile()) {
+            return true;
+        }
+        for (PackFile pack : getPacks()) {
+            if (pack.find(type, id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the object's content, return null if the store doesn't have it.
+     */
+    public byte[] read(Type type, String id) {
+        File file = looseFile(type, id);
+        if (file.isFile()) {
+            return Codec.decode(readContents(file));
+        }
+        for (PackFile pack : getPacks()) {
+            long offset = pack.find(type, id);
+            if (offset >= 0) {
+                return pack.read(offset);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write the object as a loose object. The content is written to a temp file first and
+     * moved in, so a crash never leaves a half written object that looks complete.
+     */
+    public void write(Type type, String id, byte[] content) {
+        File temp = createTempFile();
+        writeContents(temp, getCodec().encode(content));
+        moveIn(type, id, temp);
+    }
+
+    /**
+     * Create an empty temp file in the .gitlet directory, to be moved in as an object later.
+     */
+    public File createTempFile() {
+        try {
+            return File.createTempFile("tmp_obj_", null, gitletDir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Move the complete temp file in as the loose object. The first writer wins: if the object
+     * is already there, like when two threads of add save the same content, the temp file
+     * is dropped. The temp file is linked in, which fails if the object exists, so an object
+     * is never replaced; if the file system can't link, it's renamed in.
+     */
+    public void moveIn(Type type, String id, File temp) {
+        File file = looseFile(type, id);
+        if (file.exists()) {
+            temp.delete();
+            return;
+        }
+        file.getParentFile().mkdirs();
+        try {
+            Files.createLink(file.toPath(), temp.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            // written by another thread, with the same content
+        } catch (IOException | UnsupportedOperationException excp) {
+            MyUtils.moveFile(temp, file);
+        }
+        temp.delete();
+        UNSYNCED.add(file);
+    }
+
+    /**
+     * Sync the loose objects moved in by the command, and their folders, to the disk.
+     * Called before the files pointing to them are committed, see Journal.
+     */
+    static void syncWritten() {
+        List<File> files;
+        synchronized (UNSYNCED) {
+            files = new ArrayList<>(UNSYNCED);
+            UNSYNCED.clear();
+        }
+        Set<File> folders = new HashSet<>();
+        for (File file : files) {
+            if (file.isFile()) {
+                MyUtils.syncFile(file);
+                folders.add(file.getParentFile());
+            }
+        }
+        for (File folder : folders) {
+            MyUtils.syncFile(folder);
+        }
+    }
+
+    /**
+     * Get the length of the object's content.
+     */
+    long length(Type type, String id) {
+        File file = looseFile(type, id);
+        if (file.isFile()) {
+            return isCompressed(file) ? read(type, id).length : file.length();
+        }
+        for (PackFile pack : getPacks()) {
+            long offset = pack.find(type, id);
+            if (offset >= 0) {
+                return pack.length(offset);
+            }
+        }
+        throw error("Missing object %s.", id);
+    }
+
+    /**
+     * Copy the object's content to the stream, without holding it in memory.
+     */
+    void copyTo(Type type, String id, OutputStream out) throws IOException {
+        File file = looseFile(type, id);
+        if (file.isFile()) {
+            if (isCompressed(file)) {
+                out.write(read(type, id));
+            } else {
+                Files.copy(file.toPath(), out);
+            }
+            return;
+        }
+        for (PackFile pack : getPacks()) {
+            long offset = pack.find(type, id);
+            if (offset >= 0) {
+                pack.copyTo(offset, out);
+                return;
+            }
+        }
+        throw error("Missing object %s.", id);
+    }
+
+    /**
+     * Read the first bytes of the object's content, fewer if the content is shorter.
+     */
+    byte[] readHead(Type type, String id, int length) {
+        File file = looseFile(type, id);
+        if (file.isFile()) {
+            if (isCompressed(file)) {
+                byte[] content = read(type, id);
+                return Arrays.copyOf(content, Math.min(length, content.length));
+            }
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return PackFile.readAt(in, 0, (int) Math.min(length, in.size()));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (PackFile pack : getPacks()) {
+            long offset = pack.find(type, id);
+            if (offset >= 0) {
+                return pack.readHead(offset, length);
+            }
+        }
+        throw error("Missing object %s.", id);
+    }
+
+    /**
+     * Copy the object's content to the channel with FileChannel.transferTo,
+     * the bytes go from file to file and don't pass the java heap,
+     * except a compressed loose object which is decompressed in memory.
+     */
+    void transferTo(Type type, String id, FileChannel out) throws IOException {
+        File file = looseFile(type, id);
+        if (file.isFile() && isCompressed(file)) {
+            ByteBuffer content = ByteBuffer.wrap(read(type, id));
+            while (content.hasRemaining()) {
+                out.write(content);
+            }
+            return;
+        }
+        if (file.isFile()) {
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                PackFile.transfer(in, 0, in.size(), out);
+            }
+            return;
+        }
+        for (PackFile pack : getPacks()) {
+            long offset = pack.find(type, id);
+            if (offset >= 0) {
+                pack.transferTo(offset, out);
+                return;
+            }
+        }
+        throw error("Missing object %s.", id);
+    }
+
+    /**
+     * Hard link the loose object to the target, which must not exist.
+     * The object is made read-only first, since the target shares its content.
+     * Return false if the object isn't loose or is compressed, or the file system can't link it,
+     * like when the target is on another file system.
+     */
+    boolean link(Type type, String id, File target) {
+        File file = looseFile(type, id);
+        if (!file.isFile() || isCompressed(file)) {
+            return false;
+        }
+        file.setWritable(false, false);
+        try {
+            Files.createLink(target.toPath(), file.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the ids of all the objects of the type, loose or packed, in lexicographic order.
+     */
+    public List<String> list(Type type) {
+        SortedSet<String> ids = new TreeSet<>(listLoose(type));
+        for (PackFile pack : getPacks()) {
+            for (Map.Entry<Type, String> entry : pack.entries()) {
+                if (entry.getKey() == type) {
+                    ids.add(entry.getValue());
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Get the ids of the loose objects of the type.
+     */
+    private List<String> listLoose(Type type) {
+        List<String> ids = plainFilenamesIn(join(gitletDir, type.folder));
+        return ids == null ? new ArrayList<>() : ids;
+    }
+
+    /**
+     * Get all the loose objects, type and id.
+     */
+    private List<Map.Entry<Type, String>> listAllLoose() {
+        List<Map.Entry<Type, String>> objects = new ArrayList<>();
+        for (Type type : Type.values()) {
+            for (String id : listLoose(type)) {
+                if (MyUtils.isFullID(id)) {
+                    objects.add(Map.entry(type, id));
+                }
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Fold all the loose objects into a new pack, and delete the loose files.
+     * If there are too many packs, all the packs are merged into the new one as well.
+     */
+    public void repack() {
+        List<PackFile> oldPacks = getPacks();
+        boolean merge = oldPacks.size() >= MAX_PACKS;
+
+        SortedSet<Map.Entry<Type, String>> objects = new TreeSet<>(ORDER);
+        if (merge) {
+            for (PackFile pack : oldPacks) {
+                objects.addAll(pack.entries());
+            }
+        }
+        List<Map.Entry<Type, String>> loose = listAllLoose();
+        objects.addAll(loose);
+        if (loose.isEmpty() && !merge) {
+            return;
+        }
+
+        PackFile newPack = PackFile.write(packsDir, this, objects);
+        for (Map.Entry<Type, String> entry : loose) {
+            looseFile(entry.getKey(), entry.getValue()).delete();
+        }
+        if (merge) {
+            for (PackFile pack : oldPacks) {
+                if (!pack.getName().equals(newPack.getName())) {
+                    pack.delete();
+                }
+            }
+        }
+        packs = null;
+    }
+
+    /**
+     * Copy the objects from the other store into a new pack of this store,
+     * they are streamed into the pack one after another, not written as loose files.
+     */
+    void receive(ObjectStore source, SortedSet<Map.Entry<Type, String>> objects) {
+        PackFile.write(packsDir, source, objects);
+        packs = null;
+    }
+
+    /**
+     * Get the objects changed after the time, a loose object by its file and a packed one
+     * by its pack.
+     */
+    Map<Type, Set<String>> listNewer(long time) {
+        Map<Type, Set<String>> objects = new EnumMap<>(Type.class);
+        for (Type type : Type.values()) {
+            objects.put(type, new HashSet<>());
+            for (String id : listLoose(type)) {
+                if (MyUtils.isFullID(id) && looseFile(type, id).lastModified() > time) {
+                    objects.get(type).add(id);
+                }
+            }
+        }
+        for (PackFile pack : getPacks()) {
+            if (pack.lastModified() > time) {
+                for (Map.Entry<Type, String> entry : pack.entries()) {
+                    objects.get(entry.getKey()).add(entry.getValue());
+                }
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Remove all the objects not kept, and fold the reachable ones into one pack.
+     * The objects kept but not reachable are left loose with the time they had,
+     * a packed one is written out loose with the time of its pack, so it still expires.
+     * The temp files older than the time are removed as well.
+     * Return the number of bytes of the objects removed, as they were stored.
+     */
+    long collect(Map<Type, Set<String>> reachable, Map<Type, Set<String>> kept, long time) {
+        long reclaimed = 0;
+        List<PackFile> oldPacks = getPacks();
+        SortedSet<Map.Entry<Type, String>> objects = new TreeSet<>(ORDER);
+        for (PackFile pack : oldPacks) {
+            for (Map.Entry<Type, String> entry : pack.entries()) {
+                Type type = entry.getKey();
+                String id = entry.getValue();
+                if (reachable.get(type).contains(id)) {
+                    objects.add(entry);
+                } else if (kept.get(type).contains(id) && !looseFile(type, id).isFile()) {
+                    write(type, id, pack.read(pack.find(type, id)));
+                    looseFile(type, id).setLastModified(pack.lastModified());
+                } else if (!kept.get(type).contains(id)) {
+                    reclaimed += pack.length(pack.find(type, id));
+                }
+            }
+        }
+        List<Map.Entry<Type, String>> loose = new ArrayList<>();
+        for (Map.Entry<Type, String> entry : listAllLoose()) {
+            Type type = entry.getKey();
+            String id = entry.getValue();
+            if (reachable.get(type).contains(id)) {
+                loose.add(entry);
+            } else if (!kept.get(type).contains(id)) {
+                reclaimed += looseFile(type, id).length();
+                looseFile(type, id).delete();
+            }
+        }
+        objects.addAll(loose);
+
+        PackFile newPack = objects.isEmpty() ? null : PackFile.write(packsDir, this, objects);
+        for (Map.Entry<Type, String> entry : loose) {
+            looseFile(entry.getKey(), entry.getValue()).delete();
+        }
+        for (PackFile pack : oldPacks) {
+            if (newPack == null || !pack.getName().equals(newPack.getName())) {
+                pack.delete();
+            }
+        }
+        packs = null;
+
+        List<String> names = plainFilenamesIn(gitletDir);
+        for (String name : names == null ? new ArrayList<String>() : names) {
+            File file = join(gitletDir, name);
+            if (name.startsWith("tmp_obj_") && file.lastModified() <= time) {
+                reclaimed += file.length();
+                file.delete();
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Helper function for get the codec of the new loose objects.
+     */
+    private Codec getCodec() {
+        if (codec == null) {
+            codec = Codec.configured();
+        }
+        return codec;
+    }
+
+    /**
+     * Helper function for check weather the loose file starts with the header of a codec,
+     * so it's not the content as it is, without reading all of it.
+     */
+    private static boolean isCompressed(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return in.size() >= Codec.HEADER
+                    && Codec.hasHeader(PackFile.readAt(in, 0, Codec.HEADER));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Get the packs of the store, the worker threads may ask at the same time.
+     */
+    private synchronized List<PackFile> getPacks() {
+        // another process may have repacked since, like when the store is used by the daemon
+        String stamp = MyUtils.getStamp(packsDir);
+        if (packs == null || !stamp.equals(packsStamp)) {
+            packs = PackFile.loadAll(packsDir);
+            packsStamp = stamp;
+        }
+        return packs;
+    }
+}
@@ -0,0 +1,370 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * A pack file and the index file beside it.
+ * The pack file is the objects appended one after another, and the index file
+ * holds their ids sorted, so an object is found by a binary search on the index
+ * and one seek into the pack, without listing any directory.
+ * <p>
+ * The pack file format:
+ * PACK_MAGIC | VERSION | count | (type | length | content) * count
+ * <p>
+ * The index file format:
+ * INDEX_MAGIC | VERSION | count | fan-out table | (id | type | offset) * count
+ * The fan-out table has 256 ints, the entry i is the number of ids whose first byte <= i,
+ * so the search only needs to look at the ids share the same first byte.
+ * The records are sorted by the id and then the type, two objects of different types can have the same id.
+ *
+ * @author GreyQian
+ */
+class PackFile {
+    /**
+     * The magic number at the beginning of the pack file, "GPAK".
+     */
+    private static final int PACK_MAGIC = 0x4750414b;
+    /**
+     * The magic number at the beginning of the index file, "GIDX".
+     */
+    private static final int INDEX_MAGIC = 0x47494458;
+    /**
+     * The version of the pack format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the index header: magic, version, count and the fan-out table.
+     */
+    private static final int INDEX_HEADER = 12 + 256 * 4;
+    /**
+     * The size of one index record: 20 bytes id, 1 byte type and 8 bytes offset.
+     */
+    private static final int RECORD = 20 + 1 + 8;
+    /**
+     * The size of one pack entry header: 1 byte type and 8 bytes length.
+     */
+    private static final int ENTRY_HEADER = 1 + 8;
+
+    /**
+     * The pack file.
+     */
+    private final File pack;
+    /**
+     * The index file.
+     */
+    private final File index;
+    /**
+     * The number of objects in this pack.
+     */
+    private final int count;
+    /**
+     * The fan-out table of the index.
+     */
+    private final int[] fanout = new int[256];
+
+    /**
+     * Open the pack given its index file, only the index header is read.
+     */
+    PackFile(File index) {
+        this.index = index;
+        String name = index.getName();
+        this.pack = join(index.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(index)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+                throw error("Bad pack index %s.", name);
+            }
+            count = in.readInt();
+            for (int i = 0; i < fanout.length; i++) {
+                fanout[i] = in.readInt();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Load all the packs in the folder, ordered by name.
+     */
+    static List<PackFile> loadAll(File packsDir) {
+        List<PackFile> packs = new ArrayList<>();
+        List<String> names = plainFilenamesIn(packsDir);
+        if (names == null) {
+            return packs;
+        }
+        for (String name : names) {
+            if (name.startsWith("pack-") && name.endsWith(".idx")
+                    && join(packsDir, name.substring(0, name.length() - 4) + ".pack").exists()) {
+                packs.add(new PackFile(join(packsDir, name)));
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * Get the name of this pack, without the suffix.
+     */
+    String getName() {
+        return pack.getName().substring(0, pack.getName().length() - 5);
+    }
+
+    /**
+     * Get the time the pack was written.
+     */
+    long lastModified() {
+        return pack.lastModified();
+    }
+
+    /**
+     * Get the number of objects in this pack.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Get the offset of the object's entry in the pack file, -1 if the pack doesn't have it.
+     * Binary search the ids share the first byte with the given id.
+     */
+    long find(ObjectStore.Type type, String id) {
+        if (!MyUtils.isFullID(id)) {
+            return -1;
+        }
+        // the key is the id and the type, as the records are sorted
+        byte[] key = Arrays.copyOf(MyUtils.idToBytes(id), 21);
+        key[20] = type.getCode();
+        int first = key[0] & 0xff;
+        int low = first == 0 ? 0 : fanout[first - 1];
+        int high = fanout[first] - 1;
+        byte[] record = new byte[RECORD];
+        try (RandomAccessFile in = new RandomAccessFile(index, "r")) {
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                in.seek(INDEX_HEADER + (long) mid * RECORD);
+                in.readFully(record);
+                int cmp = Arrays.compareUnsigned(record, 0, 21, key, 0, 21);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    long offset = 0;
+                    for (int i = 21; i < RECORD; i++) {
+                        offset = (offset << 8) | (record[i] & 0xff);
+                    }
+                    return offset;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * Get the length of the object's content stored at the offset.
+     */
+    long length(long offset) {
+        try (RandomAccessFile in = new RandomAccessFile(pack, "r")) {
+            in.seek(offset + 1);
+            return in.readLong();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Read the content of the object stored at the offset.
+     */
+    byte[] read(long offset) {
+        try (RandomAccessFile in = new RandomAccessFile(pack, "r")) {
+            in.seek(offset + 1);
+            long length = in.readLong();
+            byte[] content = new byte[(int) length];
+            in.readFully(content);
+            return content;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copy the content of the object stored at the offset to the stream.
+     */
+    void copyTo(long offset, OutputStream out) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(pack, "r")) {
+            in.seek(offset + 1);
+            long remain = in.readLong();
+            byte[] buffer = new byte[8192];
+            while (remain > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remain));
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                out.write(buffer, 0, n);
+                remain -= n;
+            }
+        }
+    }
+
+    /**
+     * Read the first bytes of the object stored at the offset, fewer if the content is shorter.
+     */
+    byte[] readHead(long offset, int length) {
+        try (FileChannel in = FileChannel.open(pack.toPath(), StandardOpenOption.READ)) {
+            long contentLength = ByteBuffer.wrap(readAt(in, offset + 1, 8)).getLong();
+            return readAt(in, offset + 9, (int) Math.min(length, contentLength));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copy the content of the object stored at the offset to the channel with transferTo.
+     */
+    void transferTo(long offset, FileChannel out) throws IOException {
+        try (FileChannel in = FileChannel.open(pack.toPath(), StandardOpenOption.READ)) {
+            long length = ByteBuffer.wrap(readAt(in, offset + 1, 8)).getLong();
+            transfer(in, offset + 9, length, out);
+        }
+    }
+
+    /**
+     * Read the bytes at the position of the channel.
+     */
+    static byte[] readAt(FileChannel in, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Copy COUNT bytes from the position of the channel to the end of the other channel.
+     * transferTo may copy less than asked, so it's called until all the bytes are copied.
+     */
+    static void transfer(FileChannel in, long position, long count, FileChannel out)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long n = in.transferTo(position, end - position, out);
+            if (n <= 0 && position >= in.size()) {
+                throw new EOFException();
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Get all the objects in this pack, type and id, ordered as ObjectStore.ORDER.
+     */
+    SortedSet<Map.Entry<ObjectStore.Type, String>> entries() {
+        SortedSet<Map.Entry<ObjectStore.Type, String>> entries = new TreeSet<>(ObjectStore.ORDER);
+        byte[] id = new byte[20];
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(index)))) {
+            in.skipNBytes(INDEX_HEADER);
+            for (int i = 0; i < count; i++) {
+                in.readFully(id);
+                ObjectStore.Type type = ObjectStore.Type.of(in.readByte());
+                in.readLong();
+                entries.add(Map.entry(type, MyUtils.bytesToID(id)));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return entries;
+    }
+
+    /**
+     * Delete the pack file and its index.
+     */
+    void delete() {
+        index.delete();
+        pack.delete();
+    }
+
+    /**
+     * Write the objects in the store into a new pack under the folder, and return it.
+     * The objects must be ordered as ObjectStore.ORDER.
+     * The pack is named by the sha1 of its objects. The index is written after the pack,
+     * so a pack is never be seen before it is complete.
+     */
+    static PackFile write(File packsDir, ObjectStore store,
+                          SortedSet<Map.Entry<ObjectStore.Type, String>> objects) {
+        packsDir.mkdirs();
+        List<Object> names = new ArrayList<>();
+        for (Map.Entry<ObjectStore.Type, String> entry : objects) {
+            names.add(entry.getKey().name() + " " + entry.getValue());
+        }
+        String name = "pack-" + sha1(names);
+        File pack = join(packsDir, name + ".pack");
+        File index = join(packsDir, name + ".idx");
+        File tmpPack = join(packsDir, name + ".pack.tmp");
+        File tmpIndex = join(packsDir, name + ".idx.tmp");
+        long[] offsets = new long[objects.size()];
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpPack)))) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(objects.size());
+                long offset = 12;
+                int i = 0;
+                for (Map.Entry<ObjectStore.Type, String> entry : objects) {
+                    long length = store.length(entry.getKey(), entry.getValue());
+                    out.writeByte(entry.getKey().getCode());
+                    out.writeLong(length);
+                    store.copyTo(entry.getKey(), entry.getValue(), out);
+                    offsets[i++] = offset;
+                    offset += ENTRY_HEADER + length;
+                }
+            }
+
+            int[] table = new int[256];
+            for (Map.Entry<ObjectStore.Type, String> entry : objects) {
+                table[Integer.parseInt(entry.getValue().substring(0, 2), 16)]++;
+            }
+            for (int i = 1; i < table.length; i++) {
+                table[i] += table[i - 1];
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpIndex)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(objects.size());
+                for (int n : table) {
+                    out.writeInt(n);
+                }
+                int i = 0;
+                for (Map.Entry<ObjectStore.Type, String> entry : objects) {
+                    out.write(MyUtils.idToBytes(entry.getValue()));
+                    out.writeByte(entry.getKey().getCode());
+                    out.writeLong(offsets[i++]);
+                }
+            }
+        } catch (IOException excp) {
+            tmpPack.delete();
+            tmpIndex.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        // the pack is on the disk before the loose objects or the old packs are deleted
+        MyUtils.syncFile(tmpPack);
+        MyUtils.syncFile(tmpIndex);
+        MyUtils.moveFile(tmpPack, pack);
+        MyUtils.moveFile(tmpIndex, index);
+        MyUtils.syncFile(packsDir);
+        return new PackFile(index);
+    }
+}
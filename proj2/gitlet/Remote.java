@@ -0,0 +1,296 @@
+package gitlet;
+
+import java.io.File;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * A remote repository, another .gitlet directory on the local file system,
+ * and the transfer of the objects between two repositories.
+ * <p>
+ * The remotes of a repository are saved in the Remotes file, a line of the name and the path
+ * of the .gitlet directory split by a tab for each, written with the other files of a command,
+ * see Journal.
+ * <p>
+ * The transfer is a have/want negotiation over the commit graph: from the commits wanted,
+ * the parents are walked until a commit the destination already has, which comes with
+ * all its history. Then only the trees, blobs, delta bases and chunks of the new commits
+ * that the destination doesn't have are sent, a tree the destination has is not walked.
+ * The objects are streamed into one new pack of the destination, not copied file by file,
+ * see PackFile.
+ *
+ * @author GreyQian
+ */
+class Remote {
+    /**
+     * The file that store the remotes.
+     */
+    static final File REMOTES = join(Repository.GITLET_DIR, "Remotes");
+
+    /**
+     * The .gitlet directory of the remote.
+     */
+    private final File gitletDir;
+    /**
+     * The object store of the remote.
+     */
+    private final ObjectStore store;
+
+    private Remote(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.store = new ObjectStore(gitletDir);
+    }
+
+    /**
+     * Open the remote at the path, relative to the working directory if it isn't absolute.
+     * Return null if there isn't a gitlet repository.
+     */
+    static Remote open(String path) {
+        File dir = new File(path);
+        if (!dir.isAbsolute()) {
+            dir = join(Repository.CWD, path);
+        }
+        if (!join(dir, "Branches").isFile() || !join(dir, "HEAD").isFile()) {
+            return null;
+        }
+        return new Remote(dir);
+    }
+
+    /**
+     * Get the remotes, name to path.
+     */
+    static TreeMap<String, String> getRemotes() {
+        if (!Journal.isPending(REMOTES) && !REMOTES.isFile()) {
+            return new TreeMap<>();
+        }
+        TreeMap<String, String> remotes = new TreeMap<>();
+        for (String line : Journal.readString(REMOTES).split("\n")) {
+            int tab = line.indexOf('\t');
+            if (tab > 0) {
+                remotes.put(line.substring(0, tab), line.substring(tab + 1));
+            }
+        }
+        return remotes;
+    }
+
+    /**
+     * Save the remotes when the command ends.
+     */
+    static void saveRemotes(Map<String, String> remotes) {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> remote : remotes.entrySet()) {
+            content.append(remote.getKey()).append('\t').append(remote.getValue()).append('\n');
+        }
+        Journal.write(REMOTES, content.toString());
+    }
+
+    /**
+     * Get the object store of the remote.
+     */
+    ObjectStore getStore() {
+        return store;
+    }
+
+    /**
+     * Get the branches of the remote, name to commit id.
+     */
+    TreeMap<String, String> getBranches() {
+        return BinaryFormat.decodeMap(readContents(join(gitletDir, "Branches")));
+    }
+
+    /**
+     * Get the current branch of the remote.
+     */
+    String getCurrentBranch() {
+        return readContentsAsString(join(gitletDir, "HEAD")).split("\n")[0];
+    }
+
+    /**
+     * Add the commits sent to the remote to its commit graph, commit index and message index,
+     * the parents before their children, like the commits saved in the remote itself.
+     */
+    void indexCommits(List<String> commitIDs) {
+        CommitGraph.appendTo(gitletDir, commitIDs);
+        CommitIndex.appendTo(gitletDir, commitIDs);
+        MessageIndex.appendTo(gitletDir, commitIDs);
+    }
+
+    /**
+     * Point the branch of the remote at the commit, the HEAD as well if it's the current branch.
+     * Like the push of the spec, the working files and the staging area of the remote are
+     * not changed, even if it's the current branch: the remote is used as a store of commits,
+     * its working directory keeps the files of the old commit until it checks out again.
+     */
+    void setBranch(String branch, String commitID) {
+        TreeMap<String, String> branches = getBranches();
+        branches.put(branch, commitID);
+        replace(join(gitletDir, "Branches"), BinaryFormat.encodeMap(branches));
+        if (getCurrentBranch().equals(branch)) {
+            replace(join(gitletDir, "HEAD"), serializeHEAD(branch, commitID));
+        }
+    }
+
+    /**
+     * Copy the commits wanted and all the objects they reach from one store to the other,
+     * only the ones the destination doesn't have.
+     * Return the new commits of the destination, the parents before their children.
+     */
+    static List<String> transfer(ObjectStore from, ObjectStore to, Collection<String> wants) {
+        // the commits the destination doesn't have, from the wants down to the haves
+        List<String> commits = new ArrayList<>();
+        Map<String, Commit> missing = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>(wants);
+        while (!stack.isEmpty()) {
+            String commitID = stack.pop();
+            if (missing.containsKey(commitID) || to.contains(ObjectStore.Type.COMMIT, commitID)) {
+                continue;
+            }
+            byte[] content = from.read(ObjectStore.Type.COMMIT, commitID);
+            if (content == null) {
+                throw error("Missing commit %s.", commitID);
+            }
+            Commit commit = Commit.fromBytes(content);
+            missing.put(commitID, commit);
+            for (String parent : parentsOf(commit)) {
+                stack.push(parent);
+            }
+        }
+        Set<String> sorted = new HashSet<>();
+        for (String commitID : wants) {
+            sortParentsFirst(commitID, missing, sorted, commits);
+        }
+
+        SortedSet<Map.Entry<ObjectStore.Type, String>> objects = new TreeSet<>(ObjectStore.ORDER);
+        for (String commitID : commits) {
+            Commit commit = missing.get(commitID);
+            objects.add(Map.entry(ObjectStore.Type.COMMIT, commitID));
+            if (!commit.isTreeFormat()) {
+                for (String blobID : commit.getTrackedFilesMap().values()) {
+                    addBlob(from, to, blobID, objects);
+                }
+            } else if (commit.getTreeID() != null) {
+                addTree(from, to, commit.getTreeID(), objects);
+            }
+        }
+        if (!objects.isEmpty()) {
+            to.receive(from, objects);
+        }
+        return commits;
+    }
+
+    /**
+     * Helper function for the parents of the commit.
+     */
+    private static List<String> parentsOf(Commit commit) {
+        List<String> parents = new ArrayList<>();
+        for (String parent : new String[]{commit.getDirectParentID(), commit.getOtherParentID()}) {
+            if (parent != null && MyUtils.isFullID(parent)) {
+                parents.add(parent);
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Helper function for add the missing commits from the commit down, parents first.
+     * Use an explicit stack, the history can be deeper than the java stack.
+     */
+    private static void sortParentsFirst(String commitID, Map<String, Commit> missing,
+                                         Set<String> done, List<String> commits) {
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(commitID);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (!missing.containsKey(id) || done.contains(id)) {
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (String parent : parentsOf(missing.get(id))) {
+                if (missing.containsKey(parent) && !done.contains(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                done.add(id);
+                commits.add(id);
+            }
+        }
+    }
+
+    /**
+     * Helper function for add the tree and what it reaches, if the destination doesn't have it.
+     */
+    private static void addTree(ObjectStore from, ObjectStore to, String rootID,
+                                SortedSet<Map.Entry<ObjectStore.Type, String>> objects) {
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(rootID);
+        while (!stack.isEmpty()) {
+            String treeID = stack.pop();
+            if (objects.contains(Map.entry(ObjectStore.Type.TREE, treeID))
+                    || to.contains(ObjectStore.Type.TREE, treeID)) {
+                continue;
+            }
+            byte[] content = from.read(ObjectStore.Type.TREE, treeID);
+            if (content == null) {
+                throw error("Missing tree %s.", treeID);
+            }
+            objects.add(Map.entry(ObjectStore.Type.TREE, treeID));
+            List<String> subTrees = new ArrayList<>();
+            List<String> files = new ArrayList<>();
+            Tree.fromBytes(content).listEntries(subTrees, files);
+            stack.addAll(subTrees);
+            for (String blobID : files) {
+                addBlob(from, to, blobID, objects);
+            }
+        }
+    }
+
+    /**
+     * Helper function for add the blob, its delta base or its chunks,
+     * if the destination doesn't have them.
+     */
+    private static void addBlob(ObjectStore from, ObjectStore to, String blobID,
+                                SortedSet<Map.Entry<ObjectStore.Type, String>> objects) {
+        while (blobID != null && !objects.contains(Map.entry(ObjectStore.Type.BLOB, blobID))
+                && !to.contains(ObjectStore.Type.BLOB, blobID)) {
+            objects.add(Map.entry(ObjectStore.Type.BLOB, blobID));
+            String base = null;
+            if (Delta.mayBeDelta(from, blobID)) {
+                byte[] stored = from.read(ObjectStore.Type.BLOB, blobID);
+                if (Delta.isDelta(stored, blobID)) {
+                    base = Delta.getBase(stored);
+                }
+            } else if (Chunker.mayBeManifest(from, blobID)) {
+                byte[] stored = from.read(ObjectStore.Type.BLOB, blobID);
+                if (Chunker.isManifest(stored, blobID)) {
+                    for (String chunkID : Chunker.chunkIDs(stored)) {
+                        if (!to.contains(ObjectStore.Type.CHUNK, chunkID)) {
+                            objects.add(Map.entry(ObjectStore.Type.CHUNK, chunkID));
+                        }
+                    }
+                }
+            }
+            blobID = base;
+        }
+    }
+
+    /**
+     * Helper function for the content of a HEAD file.
+     */
+    private static String serializeHEAD(String branch, String commitID) {
+        return branch + "\n" + commitID;
+    }
+
+    /**
+     * Helper function for replace the file of the remote, written aside and moved in.
+     */
+    private static void replace(File file, Object content) {
+        File temp = join(file.getParentFile(), file.getName() + ".tmp");
+        writeContents(temp, content);
+        MyUtils.moveFile(temp, file);
+    }
+}
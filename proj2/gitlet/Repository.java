@@ -1,6 +1,10 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -52,6 +56,10 @@ public class Repository {
      * A map which used for store the branch and its latest commit.
      */
     public static final File BRANCHES = join(GITLET_DIR, "Branches");
+    /**
+     * The object store which hold the commits and blobs, loose or packed.
+     */
+    public static final ObjectStore OBJECTS = new ObjectStore(GITLET_DIR);
 
     /**
      * Default branch name.
@@ -69,6 +77,11 @@ public class Repository {
      * The map of branched.
      */
     private static TreeMap<String, String> branches = null;
+    /**
+     * The stamp of the map files when the maps are loaded or saved,
+     * the maps in memory are used again until the files change.
+     */
+    private static String infoMapsStamp = null;
 
 
     // The rest is the function of gitlet
@@ -84,8 +97,14 @@ public class Repository {
      * |----Branches
      * |----Commits
      * |----|----the commit file obj
+     * |----Trees
+     * |----|----the tree obj of every directory, shared by the commits
      * |----Blobs
      * |----|----the blobs obj store in it
+     * |----Chunks
+     * |----|----the chunks of the large blobs, see Chunker
+     * |----Packs
+     * |----|----the pack files and their index, made by repack
      */
     public static void init() {
         // If there is already a Gitlet version-control system
@@ -118,11 +137,13 @@ public class Repository {
      * in the staging area with the new contents.
      * 3. if the file is stage_rm ,the file will no longer be staged for removal
      * 4. If the file does not exist, print the error message File does not exist.
+     * Many files can be added at once, by their names, directories, . or glob patterns,
+     * see WorkTree.match, the files are hashed and saved on the worker threads.
      */
-    public static void add(String fileName) {
-        // If the file does not exist, print the error message File does not exist.
-        File file = join(CWD, fileName);
-        if (!file.exists()) {
+    public static void add(String... fileNames) {
+        // If a file does not exist, print the error message File does not exist.
+        List<String> paths = WorkTree.match(fileNames);
+        if (paths == null) {
             MyUtils.exit("File does not exist.");
         }
 
@@ -130,19 +151,40 @@ public class Repository {
         String currentCommitID = getCurrentCommit();
         Commit currentCommit = Commit.getCommit(currentCommitID);
 
-        if (currentCommit.isSameFile(fileName, file)) {
-            // if the file's content is same as the current commit's, don't stage it
-            stageAdd.remove(fileName);
-        } else {
-            // if the file's content is same as the current commit's, don't stage it
-            String fileHash = MyUtils.saveBlobFile(file);
-            stageAdd.put(fileName, fileHash);
+        // a file is read at most once, to hash it and save it,
+        // it's stored as a delta against the last version of the file if there is one
+        Map<String, String> commitHashes = new HashMap<>();
+        Map<String, String> baseHashes = new HashMap<>();
+        for (String fileName : paths) {
+            String commitHash = currentCommit.getTrackedFileHash(fileName);
+            commitHashes.put(fileName, commitHash);
+            baseHashes.put(fileName,
+                    stageAdd.containsKey(fileName) ? stageAdd.get(fileName) : commitHash);
         }
+        Map<String, String> fileHashes = Workers.map(paths, fileName -> {
+            String fileHash = StatIndex.getCachedHash(fileName);
+            if (fileHash == null || !OBJECTS.contains(ObjectStore.Type.BLOB, fileHash)) {
+                fileHash = MyUtils.saveBlobFile(join(CWD, fileName), baseHashes.get(fileName));
+                StatIndex.update(fileName, fileHash);
+            }
+            return fileHash;
+        });
 
-        if (stageRemoval.contains(fileName)) {
-            stageRemoval.remove(fileName);
+        for (Map.Entry<String, String> entry : fileHashes.entrySet()) {
+            String fileName = entry.getKey();
+            if (entry.getValue().equals(commitHashes.get(fileName))) {
+                // if the file's content is same as the current commit's, don't stage it
+                stageAdd.remove(fileName);
+            } else {
+                stageAdd.put(fileName, entry.getValue());
+            }
+
+            if (stageRemoval.contains(fileName)) {
+                stageRemoval.remove(fileName);
+            }
         }
 
+        // the staging area is saved once for all the files
         saveInfoMaps();
     }
 
@@ -158,6 +200,14 @@ public class Repository {
      * 2. the stage area is empty , print the error message
      */
     public static void commit(String message) {
+        commit(message, null);
+    }
+
+    /**
+     * Create a new commit, the second parent is the given branch's commit for a merge commit,
+     * null for a normal commit.
+     */
+    private static void commit(String message, String otherParentID) {
         if (message.isEmpty()) {
             MyUtils.exit("Please enter a commit message.");
         }
@@ -171,6 +221,9 @@ public class Repository {
         String parentCommitID = getCurrentCommit();
         Commit newCommit = new Commit(message, parentCommitID);
         newCommit.updateTrackMaps(stageAdd, stageRemoval);
+        if (otherParentID != null) {
+            newCommit.setOtherParentID(otherParentID);
+        }
         String newCommitID = newCommit.saveCommit();
 
         // empty the stage area
@@ -198,6 +251,10 @@ public class Repository {
      */
     public static void rm(String fileName) {
         getInfoMaps();
+        fileName = WorkTree.toPath(fileName);
+        if (fileName == null) {
+            MyUtils.exit("No reason to remove the file.");
+        }
 
         String currentCommitID = getCurrentCommit();
         Commit currentCommit = Commit.getCommit(currentCommitID);
@@ -213,7 +270,8 @@ public class Repository {
             stageRemoval.add(fileName);
             // remove the file if user has not already done so
             if (file.exists()) {
-                restrictedDelete(file);
+                WorkTree.deleteFile(fileName);
+                StatIndex.remove(fileName);
             }
         } else {
             // If the file is neither staged nor tracked by the head commit, print the error message.
@@ -226,52 +284,69 @@ public class Repository {
     /**
      * Starting at the current head commit, display information about each commit backwards
      * along the commit tree until the initial commit.
+     * The walk stops early when the writer's limits are reached or the output is closed.
      */
-    public static void log() {
+    public static void log(LogWriter writer) {
         String commitID = getCurrentCommit();
 
-        while (!commitID.equals(Commit.FIRSTCOMMITPID)) {
+        while (!commitID.equals(Commit.FIRSTCOMMITPID) && !writer.isDone()) {
             Commit commit = Commit.getCommit(commitID);
-            System.out.println(commit.toString());
+            if (writer.isBefore(commit)) {
+                // the older commits are even earlier
+                break;
+            }
+            writer.write(commit);
             commitID = commit.getDirectParentID();
         }
+        writer.flush();
     }
 
     /**
      * Global log.
      * Like log, except displays information about all commits ever made.
      * The order of the commits does not matter.
-     * Iterate the cimmits folder
+     * Iterate the cimmits folder, a commit is read only when it's going to be written.
      */
-    public static void globalLog() {
-        List<String> commitsID = Utils.plainFilenamesIn(COMMITS);
+    public static void globalLog(LogWriter writer) {
+        List<String> commitsID = OBJECTS.list(ObjectStore.Type.COMMIT);
         for (String commitID : commitsID) {
+            if (writer.isDone()) {
+                break;
+            }
             Commit commit = Commit.getCommit(commitID);
-            System.out.println(commit.toString());
+            if (!writer.isBefore(commit)) {
+                writer.write(commit);
+            }
         }
+        writer.flush();
     }
 
     /**
      * Prints out the ids of all commits that have the given commit message, one per line.
      * If no such commit exists, prints the error message Found no commit with that message.
+     * The commits are looked up in the message index, the option chooses the kind of query:
+     * null for the exact message, -s for a substring of the message,
+     * -t for the messages that have all the words of the query.
      */
-    public static void find(String message) {
-        List<String> commitsID = Utils.plainFilenamesIn(COMMITS);
-        boolean found = false;
-
-        for (String commitID : commitsID) {
-            Commit commit = Commit.getCommit(commitID);
-            String commitMessage = commit.getMessage();
-            if (message.equals(commitMessage)) {
-                System.out.println(commitID);
-                found = true;
-            }
+    public static void find(String option, String query) {
+        SortedSet<String> commitsID;
+        if (option == null) {
+            commitsID = MessageIndex.findExact(query);
+        } else if (option.equals("-s")) {
+            commitsID = MessageIndex.findSubstring(query);
+        } else if (option.equals("-t")) {
+            commitsID = MessageIndex.findTokens(query);
+        } else {
+            MyUtils.exit("Incorrect operands.");
+            return;
         }
 
-        if (!found) {
+        if (commitsID.isEmpty()) {
             MyUtils.exit("Found no commit with that message.");
         }
-
+        for (String commitID : commitsID) {
+            System.out.println(commitID);
+        }
     }
 
     /**
@@ -350,15 +425,26 @@ public class Repository {
             checkoutBranch(args[1]);
         } else if (args.length == 3 && args[1].equals("--")) {
             //  checkout -- [file name]
-            checkoutFile(args[2]);
+            checkoutFile(toCheckoutPath(args[2]));
         } else if (args.length == 4 && args[2].equals("--")) {
             // checkout [commit id] -- [file name]
-            checkoutFile(args[3], args[1]);
+            checkoutFile(toCheckoutPath(args[3]), args[1]);
         } else {
             MyUtils.exit("Incorrect operands.");
         }
     }
 
+    /**
+     * Helper function for get the path of the file to checkout in the working tree.
+     */
+    private static String toCheckoutPath(String fileName) {
+        String path = WorkTree.toPath(fileName);
+        if (path == null) {
+            MyUtils.exit("File does not exist in that commit.");
+        }
+        return path;
+    }
+
     /**
      * Creates a new branch with the given name, and points it at the current head commit.
      * If a branch with the given name already exists,
@@ -412,10 +498,6 @@ public class Repository {
         getInfoMaps();
 
         resetCommitID = getFullCommitID(resetCommitID);
-        List<String> commitsID = Utils.plainFilenamesIn(COMMITS);
-        if (!commitsID.contains(resetCommitID)) {
-            MyUtils.exit("No commit with that id exists.");
-        }
 
 
         String currentCommitID = getCurrentCommit();
@@ -485,6 +567,7 @@ public class Repository {
         Commit currentCommit = Commit.getCommit(currentCommitID);
         Commit givenCommit = Commit.getCommit(givenBranchCommitID);
         checkUntrackedFile(givenBranchCommitID);
+        SparseCheckout sparse = SparseCheckout.load();
 
         // Special case not need merge
         String splitPoint = getSplitPoint(branchName);
@@ -512,19 +595,20 @@ public class Repository {
         Set<String> givenRemoved = new HashSet<>();
         Set<String> currentChanged = new HashSet<>();
         Set<String> givenChanged = new HashSet<>();
-        Set<String> currentUnModified = new HashSet<>();
-        Set<String> givenUnModified = new HashSet<>();
-        splitModified(splitCommit, currentCommit, currentModified, currentUnModified,
+        splitModified(splitCommit, currentCommit, currentModified,
                 currentAdded, currentRemoved, currentChanged);
-        splitModified(splitCommit, givenCommit, givenModified, givenUnModified,
+        splitModified(splitCommit, givenCommit, givenModified,
                 givenAdded, givenRemoved, givenChanged);
 
         // 给定分支修改了，但是当前分支没有修改过的文件需要更改给定分支的版本，并且add
         // 1.given branch changed content, but current branch doesn't modified,
         // checked out from the commit at the front of the given branch version, stage it
+        // the files out of the sparse checkout are only staged
         for (String fileName : givenChanged) {
-            if (currentUnModified.contains(fileName)) {
-                checkoutFile(fileName, givenBranchCommitID);
+            if (!currentModified.contains(fileName)) {
+                if (sparse.includes(fileName)) {
+                    checkoutFile(fileName, givenBranchCommitID);
+                }
                 stageAdd.put(fileName, givenCommit.getFileHash(fileName));
             }
         }
@@ -543,7 +627,9 @@ public class Repository {
         // 5.given branch added, but not in current branch, checkout it, and stage it
         for (String fileName : givenAdded) {
             if (!currentCommit.isTrackedFile(fileName)) {
-                checkoutFile(fileName, givenBranchCommitID);
+                if (sparse.includes(fileName)) {
+                    checkoutFile(fileName, givenBranchCommitID);
+                }
                 stageAdd.put(fileName, givenCommit.getFileHash(fileName));
                 // saveInfoMaps();
             }
@@ -554,7 +640,7 @@ public class Repository {
         // 6.given branch deleted, and the file is unmodified in current branch,
         // delete it and untracked
         for (String fileName : givenRemoved) {
-            if (currentUnModified.contains(fileName)) {
+            if (!currentModified.contains(fileName)) {
                 // this will overwrite the stageAdd funtion
                 rm(fileName);
             }
@@ -605,16 +691,305 @@ public class Repository {
 
         // saveInfoMaps();
 
-        // replace the content files content
-        replaceConflictsContents(conflictFiles, currentCommit, givenCommit);
-        if (!conflictFiles.isEmpty()) {
+        // replace the content files content, the changes of the two branches
+        // in different lines of a file are merged, only the rest are conflicts
+        if (replaceConflictsContents(conflictFiles, splitCommit, currentCommit, givenCommit)) {
             System.out.println("Encountered a merge conflict.");
         }
         String message = "Merged " + branchName + " into " + getCurrentBranch() + ".";
-        commit(message);
-        Commit newCommit = Commit.getCommit(getCurrentCommit());
-        newCommit.setOtherParentID(givenBranchCommitID);
-        newCommit.saveCommit();
+        commit(message, givenBranchCommitID);
+    }
+
+    /**
+     * Saves the given login information under the given remote name.
+     * The directory is a .gitlet directory, its / are replaced by the separator of the system.
+     * If a remote with the given name already exists,
+     * print the error message: A remote with that name already exists.
+     */
+    public static void addRemote(String remoteName, String directory) {
+        TreeMap<String, String> remotes = Remote.getRemotes();
+        if (remotes.containsKey(remoteName)) {
+            MyUtils.exit("A remote with that name already exists.");
+        }
+        remotes.put(remoteName, directory.replace("/", File.separator));
+        Remote.saveRemotes(remotes);
+    }
+
+    /**
+     * Remove information associated with the given remote name.
+     * If a remote with the given name does not exist,
+     * print the error message: A remote with that name does not exist.
+     */
+    public static void rmRemote(String remoteName) {
+        TreeMap<String, String> remotes = Remote.getRemotes();
+        if (remotes.remove(remoteName) == null) {
+            MyUtils.exit("A remote with that name does not exist.");
+        }
+        Remote.saveRemotes(remotes);
+    }
+
+    /**
+     * Brings down commits from the remote Gitlet repository into the local Gitlet repository.
+     * The branch [remote name]/[remote branch name] in the local repository points at
+     * the head of the remote branch. Only the objects the local repository doesn't have
+     * are copied, see Remote.
+     * If the remote Gitlet repository does not have the given branch name,
+     * print the error message That remote does not have that branch.
+     * If the remote .gitlet directory does not exist, print Remote directory not found.
+     */
+    public static void fetch(String remoteName, String remoteBranch) {
+        getInfoMaps();
+        Remote remote = openRemote(remoteName);
+        String remoteHead = remote.getBranches().get(remoteBranch);
+        if (remoteHead == null) {
+            MyUtils.exit("That remote does not have that branch.");
+        }
+        indexCommits(Remote.transfer(remote.getStore(), OBJECTS, List.of(remoteHead)));
+        branches.put(remoteName + "/" + remoteBranch, remoteHead);
+        saveInfoMaps();
+    }
+
+    /**
+     * Attempts to append the current branch's commits to the end of the given branch
+     * at the given remote, the remote branch then points at the current commit.
+     * The working files of the remote are not changed, even if it's the remote's current branch,
+     * see Remote.setBranch.
+     * The commits sent are added to the index files of the remote.
+     * If the remote branch's head is not in the history of the current local head,
+     * print the error message Please pull down remote changes before pushing.
+     * If the remote .gitlet directory does not exist, print Remote directory not found.
+     */
+    public static void push(String remoteName, String remoteBranch) {
+        getInfoMaps();
+        Remote remote = openRemote(remoteName);
+        String currentCommitID = getCurrentCommit();
+        String remoteHead = remote.getBranches().get(remoteBranch);
+        if (remoteHead != null && !(OBJECTS.contains(ObjectStore.Type.COMMIT, remoteHead)
+                && remoteHead.equals(CommitGraph.getSplitPoint(remoteHead, currentCommitID)))) {
+            MyUtils.exit("Please pull down remote changes before pushing.");
+        }
+        List<String> pushed = Remote.transfer(OBJECTS, remote.getStore(), List.of(currentCommitID));
+        remote.indexCommits(pushed);
+        remote.setBranch(remoteBranch, currentCommitID);
+    }
+
+    /**
+     * Fetches branch [remote name]/[remote branch name] as for the fetch command,
+     * and then merges that fetch into the current branch.
+     */
+    public static void pull(String remoteName, String remoteBranch) {
+        fetch(remoteName, remoteBranch);
+        merge(remoteName + "/" + remoteBranch);
+    }
+
+    /**
+     * Make the current directory a copy of the remote Gitlet repository,
+     * the .gitlet directory given. All the branches and the objects they reach are copied,
+     * the current branch is the remote's current branch and its files are checked out.
+     * The remote is saved as origin.
+     * If there is already a Gitlet version-control system in the current directory,
+     * print A Gitlet version-control system already exists in the current directory.
+     * If the remote .gitlet directory does not exist, print Remote directory not found.
+     * If the current directory has files, print The current directory is not empty.
+     */
+    public static void clone(String directory) {
+        if (GITLET_DIR.exists()) {
+            MyUtils.exit("A Gitlet version-control system "
+                    + "already exists in the current directory.");
+        }
+        String path = directory.replace("/", File.separator);
+        Remote remote = Remote.open(path);
+        if (remote == null) {
+            MyUtils.exit("Remote directory not found.");
+        }
+        if (!MyUtils.getWorkingFiles().isEmpty()) {
+            MyUtils.exit("The current directory is not empty.");
+        }
+
+        initRepository();
+        TreeMap<String, String> remoteBranches = remote.getBranches();
+        String currentBranch = remote.getCurrentBranch();
+        indexCommits(Remote.transfer(remote.getStore(), OBJECTS, remoteBranches.values()));
+        branches.putAll(remoteBranches);
+        String currentCommitID = branches.get(currentBranch);
+        for (Map.Entry<String, String> file
+                : Commit.getCommit(currentCommitID).getTrackedFilesMap().entrySet()) {
+            writeWorkingFile(file.getKey(), file.getValue());
+        }
+        TreeMap<String, String> remotes = new TreeMap<>();
+        remotes.put("origin", path);
+        Remote.saveRemotes(remotes);
+        updateHEAD(currentBranch, currentCommitID);
+        saveInfoMaps();
+    }
+
+    /**
+     * Show the changes of the files as unified diffs.
+     * There are 3 usages:
+     * 1. java gitlet.Main diff, the working files from the staged or committed version,
+     * the untracked files are not shown
+     * 2. java gitlet.Main diff --cached, the staged files from the current commit
+     * 3. java gitlet.Main diff [commit id] [commit id], the second commit from the first one
+     * A file with the same hash on both sides is skipped without reading it.
+     */
+    public static void diff(String[] args) {
+        getInfoMaps();
+        Map<String, String> oldFiles;
+        Map<String, String> newFiles;
+        boolean working = false;
+        if (args.length == 1) {
+            // the files out of the sparse checkout are not in the working space
+            SparseCheckout sparse = SparseCheckout.load();
+            oldFiles = getIndexFiles();
+            oldFiles.keySet().removeIf(fileName -> !sparse.includes(fileName));
+            newFiles = new HashMap<>(StatIndex.getFileHashes(getWorkingTrackedFiles(oldFiles)));
+            working = true;
+        } else if (args.length == 2 && args[1].equals("--cached")) {
+            oldFiles = Commit.getCommit(getCurrentCommit()).getTrackedFilesMap();
+            newFiles = getIndexFiles();
+        } else if (args.length == 3) {
+            oldFiles = Commit.getCommit(getFullCommitID(args[1])).getTrackedFilesMap();
+            newFiles = Commit.getCommit(getFullCommitID(args[2])).getTrackedFilesMap();
+        } else {
+            MyUtils.exit("Incorrect operands.");
+            return;
+        }
+
+        Set<String> fileNames = new TreeSet<>(oldFiles.keySet());
+        fileNames.addAll(newFiles.keySet());
+        OutputStream out = new BufferedOutputStream(System.out, 64 * 1024);
+        try {
+            for (String fileName : fileNames) {
+                String oldHash = oldFiles.get(fileName);
+                String newHash = newFiles.get(fileName);
+                if (Objects.equals(oldHash, newHash)) {
+                    continue;
+                }
+                byte[] oldContent = oldHash == null ? null : MyUtils.readBlob(oldHash);
+                byte[] newContent;
+                if (newHash == null) {
+                    newContent = null;
+                } else if (working) {
+                    newContent = readContents(join(CWD, fileName));
+                } else {
+                    newContent = MyUtils.readBlob(newHash);
+                }
+                Diff.writeUnified(out, fileName, oldContent, newContent);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Sparse checkout function, only the files in the given directories are in the working space,
+     * see SparseCheckout. There are 3 usages:
+     * 1. java gitlet.Main sparse-checkout set [directory] ..., check out only the directories
+     * 2. java gitlet.Main sparse-checkout list, print the directories
+     * 3. java gitlet.Main sparse-checkout disable, check out all the files again
+     * The tracked files which leave the sparse checkout are deleted from the working space,
+     * the ones which enter it are written.
+     * If a tracked file which would be deleted is changed and the change is not added,
+     * print There is a modified file out of the sparse checkout; add and commit it first.
+     * If an untracked file would be overwritten,
+     * print There is an untracked file in the way; delete it, or add and commit it first.
+     */
+    public static void sparseCheckout(String[] args) {
+        if (args.length == 2 && args[1].equals("list")) {
+            for (String dir : SparseCheckout.load().getDirs()) {
+                System.out.println(dir);
+            }
+            return;
+        }
+        List<String> dirs = new ArrayList<>();
+        if (args.length >= 3 && args[1].equals("set")) {
+            for (int i = 2; i < args.length; i++) {
+                String dir = WorkTree.toPath(args[i]);
+                if (dir == null) {
+                    MyUtils.exit("Incorrect operands.");
+                }
+                dirs.add(dir);
+            }
+        } else if (!(args.length == 2 && args[1].equals("disable"))) {
+            MyUtils.exit("Incorrect operands.");
+        }
+
+        getInfoMaps();
+        SparseCheckout oldSparse = SparseCheckout.load();
+        SparseCheckout newSparse = new SparseCheckout(dirs);
+        Map<String, String> leaving = new TreeMap<>();
+        Map<String, String> entering = new TreeMap<>();
+        for (Map.Entry<String, String> entry : getIndexFiles().entrySet()) {
+            boolean was = oldSparse.includes(entry.getKey());
+            boolean is = newSparse.includes(entry.getKey());
+            if (was && !is) {
+                leaving.put(entry.getKey(), entry.getValue());
+            } else if (!was && is) {
+                entering.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // hash the files which would be deleted or overwritten on the worker threads
+        Set<String> hashFiles = new TreeSet<>(leaving.keySet());
+        hashFiles.addAll(entering.keySet());
+        hashFiles.removeIf(fileName -> !join(CWD, fileName).isFile());
+        Map<String, String> workingHashes = StatIndex.getFileHashes(hashFiles);
+        for (Map.Entry<String, String> entry : leaving.entrySet()) {
+            String workingHash = workingHashes.get(entry.getKey());
+            if (workingHash != null && !workingHash.equals(entry.getValue())) {
+                MyUtils.exit("There is a modified file out of the sparse checkout;"
+                        + " add and commit it first.");
+            }
+        }
+        for (Map.Entry<String, String> entry : entering.entrySet()) {
+            String workingHash = workingHashes.get(entry.getKey());
+            if (workingHash != null && !workingHash.equals(entry.getValue())) {
+                MyUtils.exit("There is an untracked file in the way;"
+                        + " delete it, or add and commit it first.");
+            }
+        }
+
+        for (String fileName : leaving.keySet()) {
+            WorkTree.deleteFile(fileName);
+            StatIndex.remove(fileName);
+        }
+        for (Map.Entry<String, String> entry : entering.entrySet()) {
+            if (!workingHashes.containsKey(entry.getKey())) {
+                writeWorkingFile(entry.getKey(), entry.getValue());
+            }
+        }
+        newSparse.save();
+    }
+
+    /**
+     * Remove the objects no branch, the HEAD commit or the staging area can reach,
+     * and repack the rest, see GarbageCollector. Print the number of bytes reclaimed.
+     */
+    public static void gc() {
+        getInfoMaps();
+        Set<String> commits = new HashSet<>(branches.values());
+        commits.add(getCurrentCommit());
+        long reclaimed = GarbageCollector.collect(OBJECTS, commits, stageAdd.values());
+        System.out.println("Reclaimed " + reclaimed + " bytes.");
+    }
+
+    /**
+     * Check the objects in the store, print the corrupt, missing and dangling objects
+     * and the broken parent links, see Fsck.
+     */
+    public static void fsck() {
+        getInfoMaps();
+        Fsck.check(OBJECTS, branches, getCurrentCommit(), stageAdd.values());
+    }
+
+    /**
+     * Repack the object store.
+     * Fold all the loose commits and blobs into a pack file, so the store
+     * doesn't need one file for each object.
+     */
+    public static void repack() {
+        OBJECTS.repack();
     }
 
 
@@ -644,20 +1019,48 @@ public class Repository {
      * Helper function for get the maps we need.
      * the stage maps, branch maps
      */
-    @SuppressWarnings("unchecked")
     private static void getInfoMaps() {
-        branches = readObject(BRANCHES, TreeMap.class);
-        stageAdd = readObject(STAGE_ADD, TreeMap.class);
-        stageRemoval = readObject(STAGE_REMOVAL, HashSet.class);
+        String stamp = MyUtils.getStamp(BRANCHES, STAGE_ADD, STAGE_REMOVAL);
+        if (branches != null && (Journal.isPending(BRANCHES) || stamp.equals(infoMapsStamp))) {
+            // the maps saved by this command are the newest,
+            // and the daemon keeps the maps warm
+            return;
+        }
+        branches = BinaryFormat.decodeMap(readContents(BRANCHES));
+        stageAdd = BinaryFormat.decodeMap(readContents(STAGE_ADD));
+        stageRemoval = BinaryFormat.decodeSet(readContents(STAGE_REMOVAL));
+        infoMapsStamp = stamp;
     }
 
     /**
      * Helper function for save the maps we need.
+     * They are written to the files with HEAD when the command ends, see saveChanges.
      */
     private static void saveInfoMaps() {
-        writeObject(BRANCHES, branches);
-        writeObject(STAGE_ADD, stageAdd);
-        writeObject(STAGE_REMOVAL, stageRemoval);
+        Journal.write(BRANCHES, BinaryFormat.encodeMap(branches));
+        Journal.write(STAGE_ADD, BinaryFormat.encodeMap(stageAdd));
+        Journal.write(STAGE_REMOVAL, BinaryFormat.encodeSet(stageRemoval));
+    }
+
+    /**
+     * Write the maps and HEAD changed by the command to their files, all or none of them.
+     */
+    static void saveChanges() {
+        boolean savedMaps = Journal.isPending(BRANCHES);
+        Journal.commit();
+        if (savedMaps) {
+            infoMapsStamp = MyUtils.getStamp(BRANCHES, STAGE_ADD, STAGE_REMOVAL);
+        }
+    }
+
+    /**
+     * Forget the maps in memory, they are loaded again by the next command.
+     * Used by the daemon after a command failed, the maps may have been changed but not saved,
+     * and the changes not written yet are dropped.
+     */
+    static void forgetInfoMaps() {
+        Journal.abort();
+        infoMapsStamp = null;
     }
 
     /**
@@ -665,7 +1068,7 @@ public class Repository {
      * The HEAD is current branch name + '\n' + latest commit of the current branch
      */
     private static void updateHEAD(String branch, String commitID) {
-        writeContents(HEAD, branch + "\n" + commitID);
+        Journal.write(HEAD, branch + "\n" + commitID);
     }
 
     /**
@@ -673,7 +1076,7 @@ public class Repository {
      * From HEAD file to get.
      */
     private static String getCurrentBranch() {
-        String content = readContentsAsString(HEAD);
+        String content = Journal.readString(HEAD);
         return content.split("\n")[0];
     }
 
@@ -682,7 +1085,7 @@ public class Repository {
      * From HEAD file to get.
      */
     private static String getCurrentCommit() {
-        String content = readContentsAsString(HEAD);
+        String content = Journal.readString(HEAD);
         return content.split("\n")[1];
     }
 
@@ -695,6 +1098,8 @@ public class Repository {
         if (!GITLET_DIR.exists()) {
             MyUtils.exit("Not in an initialized Gitlet directory.");
         }
+        // finish the changes of a command that stopped before they are all written
+        Journal.recover();
     }
 
     /**
@@ -706,11 +1111,13 @@ public class Repository {
      * Deleted Files:
      * 1. added but not in the working space
      * 2. not in stage removal but commit it and not in the current working space
+     * The files out of the sparse checkout are not in the working space, they are not deleted.
      */
     private static void getFileStatus(Set<String> modifiedFiles,
                                       Set<String> deletedFiles, Set<String> untrackedFiles) {
-        List<String> workingSpace = Utils.plainFilenamesIn(CWD);
+        Set<String> workingSpace = new HashSet<>(MyUtils.getWorkingFiles());
         Commit currentCommit = Commit.getCommit(getCurrentCommit());
+        SparseCheckout sparse = SparseCheckout.load();
 
         for (String fileName : workingSpace) {
             if (!stageAdd.containsKey(fileName) && !currentCommit.isTrackedFile(fileName)) {
@@ -718,19 +1125,25 @@ public class Repository {
             }
         }
 
+        // hash all the tracked and added files in the working space on the worker threads
+        Set<String> hashFiles = new TreeSet<>(currentCommit.getTrackedFilesMap().keySet());
+        hashFiles.addAll(stageAdd.keySet());
+        hashFiles.retainAll(workingSpace);
+        Map<String, String> workingHashes = StatIndex.getFileHashes(hashFiles);
+
         for (Map.Entry<String, String> entry : currentCommit.getTrackedFilesMap().entrySet()) {
             String fileName = entry.getKey();
             String fileHash = entry.getValue();
 
             // commit and in the working space
             if (workingSpace.contains(fileName)) {
-                String workingFileHash = MyUtils.getFileHash(join(CWD, fileName));
+                String workingFileHash = workingHashes.get(fileName);
                 if (!fileHash.equals(workingFileHash) && !stageAdd.containsKey(fileName)) {
                     // content is not same and not in stage add area
                     modifiedFiles.add(fileName);
                 }
             } else {            // commit but not in the working space
-                if (!stageRemoval.contains(fileName)) {
+                if (!stageRemoval.contains(fileName) && sparse.includes(fileName)) {
                     deletedFiles.add(fileName);
                 }
             }
@@ -741,11 +1154,11 @@ public class Repository {
             String fileHash = entry.getValue();
             // added and in the working space
             if (workingSpace.contains(fileName)) {
-                String workingFileHash = MyUtils.getFileHash(join(CWD, fileName));
+                String workingFileHash = workingHashes.get(fileName);
                 if (!fileHash.equals(workingFileHash)) {
                     modifiedFiles.add(fileName);
                 }
-            } else {
+            } else if (sparse.includes(fileName)) {
                 // added but not in the working space
                 deletedFiles.add(fileName);
             }
@@ -805,21 +1218,42 @@ public class Repository {
      * overwriting the versions of the files that are already there if they exist.
      * Any files that are tracked in the current commit but are not present
      * in the checked-out branch are deleted.
+     * With a sparse checkout, only the directories of it are diffed and written.
      */
     private static void checkoutCommit(String currentCommitID, String checkoutCommitID) {
         Commit checkoutCommit = Commit.getCommit(checkoutCommitID);
         Commit currentCommit = Commit.getCommit(currentCommitID);
-
-        for (String fileName : checkoutCommit.getTrackedFilesMap().keySet()) {
-            checkoutFile(fileName, checkoutCommitID);
+        SparseCheckout sparse = SparseCheckout.load();
+
+        // the files different between the commits are deleted, then written,
+        // so a file can take the place of a directory that is deleted and the other way
+        Map<String, String[]> changes = Tree.diff(currentCommit.getTreeID(),
+                checkoutCommit.getTreeID(), sparse::includesDir);
+        for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+            if (entry.getValue()[1] == null && entry.getValue()[0] != null) {
+                WorkTree.deleteFile(entry.getKey());
+                StatIndex.remove(entry.getKey());
+            }
         }
-
-        for (String fileName : currentCommit.getTrackedFilesMap().keySet()) {
-            if (!checkoutCommit.isTrackedFile(fileName)) {
-                File file = join(CWD, fileName);
-                restrictedDelete(file);
+        for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+            if (entry.getValue()[1] != null) {
+                writeWorkingFile(entry.getKey(), entry.getValue()[1]);
             }
+        }
 
+        // the other files are the same in both commits,
+        // only the ones changed in the working space are written back
+        Map<String, String> sameFiles = new TreeMap<>(sparse.isEnabled()
+                ? Tree.flatten(checkoutCommit.getTreeID(), sparse::includesDir)
+                : checkoutCommit.getTrackedFilesMap());
+        sameFiles.keySet().removeAll(changes.keySet());
+        Set<String> workingFiles = new TreeSet<>(sameFiles.keySet());
+        workingFiles.retainAll(MyUtils.getWorkingFiles());
+        Map<String, String> workingHashes = StatIndex.getFileHashes(workingFiles);
+        for (Map.Entry<String, String> entry : sameFiles.entrySet()) {
+            if (!entry.getValue().equals(workingHashes.get(entry.getKey()))) {
+                writeWorkingFile(entry.getKey(), entry.getValue());
+            }
         }
     }
 
@@ -849,18 +1283,23 @@ public class Repository {
             MyUtils.exit("No commit with that id exists.");
         }
 
-        // get the file's content in the commit
-        File file = join(BLOBS, commit.getFileHash(fileName));
-        String content = readContentsAsString(file);
+        // get the file's hash in the commit
+        String fileHash = commit.getFileHash(fileName);
 
-        // rewrite the content
-        File workingSpaceFile = join(CWD, fileName);
         // if the content is same no need to rewrite
-        if (workingSpaceFile.exists() && commit.isSameFile(fileName, workingSpaceFile)) {
+        File workingSpaceFile = join(CWD, fileName);
+        if (workingSpaceFile.exists() && commit.isSameFile(fileName)) {
             return;
         }
-        MyUtils.createFile(workingSpaceFile);
-        writeContents(workingSpaceFile, content);
+        writeWorkingFile(fileName, fileHash);
+    }
+
+    /**
+     * Write the blob's content to the working file, and record it in the stat index.
+     */
+    private static void writeWorkingFile(String fileName, String fileHash) {
+        MyUtils.writeBlobFile(fileHash, join(CWD, fileName));
+        StatIndex.update(fileName, fileHash);
     }
 
     /**
@@ -868,7 +1307,7 @@ public class Repository {
      * Untracked files : exist in working space but not add and not commit(include the rm files)
      */
     private static Set<String> getUntrackedFiles() {
-        List<String> workingSpace = Utils.plainFilenamesIn(CWD);
+        List<String> workingSpace = MyUtils.getWorkingFiles();
         Commit commit = Commit.getCommit(getCurrentCommit());
         Set<String> untrackedFiles = new HashSet<>();
 
@@ -903,21 +1342,78 @@ public class Repository {
     }
 
     /**
-     * Get the full CommitID given a short commitID.
-     * If there are not just one exist, just return the first commit id match in the COMMITS folder.
+     * Helper function for open the remote with the name.
+     * If there isn't a remote with the name, print A remote with that name does not exist.
+     * If its .gitlet directory does not exist, print Remote directory not found.
+     */
+    private static Remote openRemote(String remoteName) {
+        String path = Remote.getRemotes().get(remoteName);
+        if (path == null) {
+            MyUtils.exit("A remote with that name does not exist.");
+        }
+        Remote remote = Remote.open(path);
+        if (remote == null) {
+            MyUtils.exit("Remote directory not found.");
+        }
+        return remote;
+    }
+
+    /**
+     * Helper function for add the commits copied from another repository to the indexes,
+     * the parents come before their children.
+     */
+    private static void indexCommits(List<String> commitIDs) {
+        for (String commitID : commitIDs) {
+            Commit commit = Commit.getCommit(commitID);
+            CommitGraph.add(commitID, commit.getDirectParentID(), commit.getOtherParentID());
+            CommitIndex.add(commitID);
+            MessageIndex.add(commit.getMessage(), commitID);
+        }
+    }
+
+    /**
+     * Get the files of the next commit and their hashes,
+     * the files of the current commit with the staged changes.
+     */
+    private static Map<String, String> getIndexFiles() {
+        Map<String, String> indexFiles = new HashMap<>(
+                Commit.getCommit(getCurrentCommit()).getTrackedFilesMap());
+        indexFiles.putAll(stageAdd);
+        for (String fileName : stageRemoval) {
+            indexFiles.remove(fileName);
+        }
+        return indexFiles;
+    }
+
+    /**
+     * Get the files of the index which are still in the working space.
+     */
+    private static Set<String> getWorkingTrackedFiles(Map<String, String> indexFiles) {
+        Set<String> workingFiles = new TreeSet<>();
+        for (String fileName : indexFiles.keySet()) {
+            if (join(CWD, fileName).isFile()) {
+                workingFiles.add(fileName);
+            }
+        }
+        return workingFiles;
+    }
+
+    /**
+     * Get the full CommitID given a short commitID, or a full one.
+     * The id is looked up in the commit index, exit if it isn't a hex id,
+     * no commit has it or more than one commit starts with it.
      */
     private static String getFullCommitID(String commitID) {
-        int length = commitID.length();
-        if (length == 40) {
-            return commitID;
-        }
-        List<String> commitsID = plainFilenamesIn(COMMITS);
-        List<String> fullCommitIDs = new ArrayList<>();
-        for (String id : commitsID) {
-            if (id.substring(0, length).equals(commitID)) {
-                fullCommitIDs.add(id);
+        String prefix = commitID.toLowerCase();
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH) {
+            MyUtils.exit("No commit with that id exists.");
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.digit(prefix.charAt(i), 16) < 0) {
+                MyUtils.exit("No commit with that id exists.");
             }
         }
+        List<String> fullCommitIDs = CommitIndex.find(prefix, 2);
         if (fullCommitIDs.size() == 0) {
             MyUtils.exit("No commit with that id exists.");
         } else if (fullCommitIDs.size() > 1) {
@@ -933,15 +1429,18 @@ public class Repository {
     private static void checkUntrackedFile(String checkoutCommitID) {
         Set<String> untrackedFiles = getUntrackedFiles();
         Commit checkoutCommit = Commit.getCommit(checkoutCommitID);
-        for (String fileName : untrackedFiles) {
-            if (checkoutCommit.isTrackedFile(fileName)) {
-                // check weather would be overwrite
-                File file = join(CWD, fileName);
-                if (!checkoutCommit.isSameFile(fileName, file)) {
-                    // content is not same, can overwrite
-                    MyUtils.exit("There is an untracked file in the way;"
-                            + " delete it, or add and commit it first.");
-                }
+        Map<String, String> checkoutFiles = checkoutCommit.getTrackedFilesMap();
+
+        // hash the untracked files the checkout would write on the worker threads
+        Set<String> hashFiles = new TreeSet<>(untrackedFiles);
+        hashFiles.retainAll(checkoutFiles.keySet());
+        Map<String, String> workingHashes = StatIndex.getFileHashes(hashFiles);
+        for (String fileName : hashFiles) {
+            // check weather would be overwrite
+            if (!workingHashes.get(fileName).equals(checkoutFiles.get(fileName))) {
+                // content is not same, can overwrite
+                MyUtils.exit("There is an untracked file in the way;"
+                        + " delete it, or add and commit it first.");
             }
         }
     }
@@ -949,81 +1448,84 @@ public class Repository {
 
     /**
      * Get Split point commit.
+     * The split point is found in the commit graph, without reading the commits.
      */
     private static String getSplitPoint(String branchName) {
-        String splitPoint = "";
-        String currentCommitID = getCurrentCommit();
-        Commit currentBranchCommit = Commit.getCommit(currentCommitID);
-        Queue<String> currentBranchCommitSet =
-                currentBranchCommit.getAllCommitsIDs(currentCommitID);
-        String otherBranchCommitID = branches.get(branchName);
-        Commit commit = Commit.getCommit(branches.get(branchName));
-        Queue<String> otherBranchCommitSet = commit.getAllCommitsIDs(otherBranchCommitID);
-
-        while (!otherBranchCommitSet.isEmpty()) {
-            String commitID = otherBranchCommitSet.poll();
-            if (currentBranchCommitSet.contains(commitID)) {
-                splitPoint = commitID;
-                break;
-            }
-        }
-
-
-        return splitPoint;
+        String splitPoint = CommitGraph.getSplitPoint(getCurrentCommit(), branches.get(branchName));
+        return splitPoint == null ? "" : splitPoint;
     }
 
     /**
-     * Split the modified files and unmodified files between two commits
-     * The modified can be add, rm or changed
+     * Split the modified files between two commits
+     * The modified can be add, rm or changed, the files not modified are the split commit's
+     * other files. The root trees are diffed, the sub trees not changed are skipped.
      */
     private static void splitModified(Commit splitCommit, Commit commit, Set<String> modified,
-                                      Set<String> unModified, Set<String> add,
-                                      Set<String> rm, Set<String> change) {
-
-        for (String fileName : commit.getTrackedFilesMap().keySet()) {
-            if (splitCommit.isTrackedFile(fileName)) {
-                if (splitCommit.getFileHash(fileName).equals(commit.getFileHash(fileName))) {
-                    unModified.add(fileName);
-                } else {
-                    modified.add(fileName); // content is been modified
-                    change.add(fileName);
-                }
+                                      Set<String> add, Set<String> rm, Set<String> change) {
+        Map<String, String[]> changes = Tree.diff(splitCommit.getTreeID(), commit.getTreeID());
+        for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+            String fileName = entry.getKey();
+            modified.add(fileName);
+            if (entry.getValue()[0] == null) {
+                add.add(fileName);          // file is been added
+            } else if (entry.getValue()[1] == null) {
+                rm.add(fileName);           // file is been deleted
             } else {
-                modified.add(fileName);     // file is been added
-                add.add(fileName);
-            }
-        }
-
-        // file is been deleted
-        for (String fileName : splitCommit.getTrackedFilesMap().keySet()) {
-            if (!commit.isTrackedFile(fileName)) {
-                modified.add(fileName);
-                rm.add(fileName);
+                change.add(fileName);       // content is been modified
             }
         }
-
     }
 
     /**
-     * Replace the conflict content files.
+     * Replace the conflict content files, return weather any conflict is left.
+     * If both branches have the file, it is merged line by line from the split point,
+     * see Diff3. If one branch deleted it, or nothing can be merged, the whole file is a conflict.
      */
-    private static void replaceConflictsContents(Set<String> conflicts,
-                                                 Commit currentCommit, Commit givenCommit) {
+    private static boolean replaceConflictsContents(Set<String> conflicts, Commit splitCommit,
+                                                    Commit currentCommit, Commit givenCommit) {
         getInfoMaps();
+        boolean encountered = false;
         for (String fileName : conflicts) {
-            String currentContent = getContentOfFile(currentCommit, fileName);
-            String givenContent = getContentOfFile(givenCommit, fileName);
-            String content = "<<<<<<< HEAD\n" + currentContent
-                    + "\n=======\n" + givenContent + ">>>>>>>";
+            byte[] content = null;
+            if (currentCommit.isTrackedFile(fileName) && givenCommit.isTrackedFile(fileName)) {
+                Diff3.Result merged = Diff3.merge(getBytesOfFile(splitCommit, fileName),
+                        getBytesOfFile(currentCommit, fileName),
+                        getBytesOfFile(givenCommit, fileName));
+                if (!merged.isWholeConflict()) {
+                    content = merged.getContent();
+                    encountered |= merged.getConflicts() > 0;
+                }
+            }
+            if (content == null) {
+                String currentContent = getContentOfFile(currentCommit, fileName);
+                String givenContent = getContentOfFile(givenCommit, fileName);
+                content = ("<<<<<<< HEAD\n" + currentContent
+                        + "\n=======\n" + givenContent + ">>>>>>>")
+                        .getBytes(StandardCharsets.UTF_8);
+                encountered = true;
+            }
             File file = join(CWD, fileName);
+            // the file may be linked to a blob, replace it instead of writing through
+            file.delete();
             MyUtils.createFile(file);
             writeContents(file, content);
             String fileHash = sha1(content);
-            MyUtils.saveBlobFile(file);
+            MyUtils.saveBlobFile(file, currentCommit.getTrackedFileHash(fileName));
+            StatIndex.update(fileName, fileHash);
             stageAdd.put(fileName, fileHash);
         }
         saveInfoMaps();
+        return encountered;
+    }
 
+    /**
+     * Get the bytes of file in the commit, if file is deleted, the file is empty.
+     */
+    private static byte[] getBytesOfFile(Commit commit, String fileName) {
+        if (commit.isTrackedFile(fileName)) {
+            return MyUtils.readBlob(commit.getFileHash(fileName));
+        }
+        return new byte[0];
     }
 
     /**
@@ -1031,8 +1533,8 @@ public class Repository {
      */
     private static String getContentOfFile(Commit commit, String fileName) {
         if (commit.isTrackedFile(fileName)) {
-            File file = join(BLOBS, commit.getFileHash(fileName));
-            return readContentsAsString(file);
+            return new String(MyUtils.readBlob(commit.getFileHash(fileName)),
+                    StandardCharsets.UTF_8);
         }
         return "";
     }
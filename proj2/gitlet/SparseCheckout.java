@@ -0,0 +1,121 @@
+package gitlet;
+
+import java.io.File;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * The sparse checkout of the working tree, like the cone mode of git sparse-checkout.
+ * Only the files under the sparse directories, and the files right in the working directory
+ * or in a parent of a sparse directory, are in the working tree. The other tracked files stay
+ * in the commits and the staging area, but they are not written, listed or hashed, so status
+ * and checkout cost as much as the sparse directories, not the whole tree.
+ * <p>
+ * The sparse directories are saved in the SparseCheckout file, a path in each line,
+ * written with the other files of a command, see Journal. No file or an empty one means
+ * all the files are checked out.
+ *
+ * @author GreyQian
+ */
+class SparseCheckout {
+    /**
+     * The file that store the sparse directories.
+     */
+    static final File FILE = join(Repository.GITLET_DIR, "SparseCheckout");
+
+    /**
+     * The sparse directories, in lexicographic order.
+     */
+    private final SortedSet<String> dirs;
+    /**
+     * The parents of the sparse directories, "" for the working directory.
+     */
+    private final Set<String> parents = new HashSet<>();
+
+    SparseCheckout(Collection<String> dirs) {
+        this.dirs = new TreeSet<>(dirs);
+        for (String dir : this.dirs) {
+            for (String parent = parentOf(dir); parent != null; parent = parentOf(parent)) {
+                parents.add(parent);
+            }
+        }
+    }
+
+    /**
+     * Load the sparse checkout of the repository.
+     */
+    static SparseCheckout load() {
+        List<String> dirs = new ArrayList<>();
+        if (Journal.isPending(FILE) || FILE.isFile()) {
+            for (String line : Journal.readString(FILE).split("\n")) {
+                if (!line.isEmpty()) {
+                    dirs.add(line);
+                }
+            }
+        }
+        return new SparseCheckout(dirs);
+    }
+
+    /**
+     * Save the sparse checkout when the command ends.
+     */
+    void save() {
+        StringBuilder content = new StringBuilder();
+        for (String dir : dirs) {
+            content.append(dir).append('\n');
+        }
+        Journal.write(FILE, content.toString());
+    }
+
+    /**
+     * Check weather only some directories are checked out.
+     */
+    boolean isEnabled() {
+        return !dirs.isEmpty();
+    }
+
+    /**
+     * Get the sparse directories, in lexicographic order.
+     */
+    SortedSet<String> getDirs() {
+        return dirs;
+    }
+
+    /**
+     * Check weather the file is in the sparse checkout.
+     */
+    boolean includes(String fileName) {
+        String dir = parentOf(fileName);
+        return includesDir(dir == null ? "" : dir);
+    }
+
+    /**
+     * Check weather the files right in the directory are in the sparse checkout,
+     * "" is the working directory. A directory which is not, and none of its sub directories
+     * is, need not be walked.
+     */
+    boolean includesDir(String dir) {
+        if (dirs.isEmpty() || parents.contains(dir)) {
+            return true;
+        }
+        for (String path = dir; path != null; path = parentOf(path)) {
+            if (dirs.contains(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper function for the parent directory of the path, "" for the working directory,
+     * null for the working directory itself.
+     */
+    private static String parentOf(String path) {
+        if (path.isEmpty()) {
+            return null;
+        }
+        int slash = path.lastIndexOf(Tree.SEPARATOR);
+        return slash < 0 ? "" : path.substring(0, slash);
+    }
+}
@@ -0,0 +1,263 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * The stat index of the working directory, like the index of git.
+ * Next to the hash of every working file it has hashed, it records the file's
+ * size, modified time and inode, so a file is hashed again only when one of them changed.
+ * <p>
+ * A file changed in the same moment it was hashed keeps the same stat,
+ * so an entry recorded within RACY_NANOS of the file's modified time is not trusted,
+ * the file is hashed again next time and the entry becomes trusted then.
+ * <p>
+ * The index can be used from many worker threads at the same time, see getFileHashes.
+ * <p>
+ * The file format of the index:
+ * MAGIC | VERSION | count | (path | hash | size | mtime | inode | recorded) * count
+ * An index of an older format, or a broken one, is dropped, the files are hashed again.
+ *
+ * @author GreyQian
+ */
+class StatIndex {
+    /**
+     * The file that store the index.
+     */
+    static final File INDEX = join(Repository.GITLET_DIR, "Index");
+    /**
+     * The entries closer than this to the file's modified time are racy.
+     */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+    /**
+     * The magic number of the index file, "GSTA".
+     */
+    private static final int MAGIC = 0x47535441;
+    /**
+     * The version of the index file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The stat and hash of a working file.
+     */
+    private static class Entry {
+        /**
+         * The sha1 hash of the file's content.
+         */
+        private final String hash;
+        /**
+         * The size of the file.
+         */
+        private final long size;
+        /**
+         * The modified time of the file in nanoseconds.
+         */
+        private final long mtime;
+        /**
+         * The inode of the file, 0 if the file system doesn't have one.
+         */
+        private final long inode;
+        /**
+         * When the entry is recorded, in nanoseconds.
+         */
+        private final long recorded;
+
+        Entry(String hash, long size, long mtime, long inode, long recorded) {
+            this.hash = hash;
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.recorded = recorded;
+        }
+
+        Entry(String hash, long[] stat, long recorded) {
+            this.hash = hash;
+            this.size = stat[0];
+            this.mtime = stat[1];
+            this.inode = stat[2];
+            this.recorded = recorded;
+        }
+
+        /**
+         * Check weather the entry still describes the file with the stat.
+         */
+        boolean matches(long[] stat) {
+            return size == stat[0] && mtime == stat[1] && inode == stat[2]
+                    && recorded - mtime >= RACY_NANOS;
+        }
+    }
+
+    /**
+     * The entries of the index, file name to entry.
+     * It's only set when all the entries are loaded, the worker threads may load it at once.
+     */
+    private static volatile ConcurrentHashMap<String, Entry> entries = null;
+    /**
+     * Weather the entries changed since they are loaded.
+     */
+    private static volatile boolean changed = false;
+
+    /**
+     * Get the hash of the working file, use the recorded one if the file's stat is unchanged.
+     */
+    static String getFileHash(String fileName) {
+        loadEntries();
+        File file = join(Repository.CWD, fileName);
+        long[] stat = stat(file);
+        Entry entry = entries.get(fileName);
+        if (entry != null && entry.matches(stat)) {
+            return entry.hash;
+        }
+        String hash = MyUtils.getFileHash(file);
+        record(fileName, hash, stat);
+        return hash;
+    }
+
+    /**
+     * Get the hashes of the working files, the files are checked and hashed on the worker threads.
+     * Return the map from file name to hash in the same order as the file names.
+     */
+    static Map<String, String> getFileHashes(Collection<String> fileNames) {
+        loadEntries();
+        return Workers.map(fileNames, StatIndex::getFileHash);
+    }
+
+    /**
+     * Get the recorded hash of the working file if the file's stat is unchanged, otherwise null.
+     */
+    static String getCachedHash(String fileName) {
+        loadEntries();
+        Entry entry = entries.get(fileName);
+        if (entry != null && entry.matches(stat(join(Repository.CWD, fileName)))) {
+            return entry.hash;
+        }
+        return null;
+    }
+
+    /**
+     * Record the hash of the working file, which is just known by saving or writing it.
+     */
+    static void update(String fileName, String hash) {
+        loadEntries();
+        record(fileName, hash, stat(join(Repository.CWD, fileName)));
+    }
+
+    /**
+     * Forget the working file, after it's deleted.
+     */
+    static void remove(String fileName) {
+        loadEntries();
+        if (entries.remove(fileName) != null) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Save the index if it changed.
+     */
+    static void save() {
+        if (!changed || !Repository.GITLET_DIR.exists()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(INDEX)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            BinaryFormat.writeVarInt(out, entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                BinaryFormat.writeString(out, entry.getKey());
+                BinaryFormat.writeID(out, value.hash);
+                out.writeLong(value.size);
+                out.writeLong(value.mtime);
+                out.writeLong(value.inode);
+                out.writeLong(value.recorded);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        changed = false;
+    }
+
+    /**
+     * Helper function for record an entry.
+     */
+    private static void record(String fileName, String hash, long[] stat) {
+        entries.put(fileName, new Entry(hash, stat, now()));
+        changed = true;
+    }
+
+    /**
+     * Helper function for load the entries.
+     * The worker threads of add may ask at the same time, only the first one reads the file.
+     */
+    private static void loadEntries() {
+        if (entries != null) {
+            return;
+        }
+        synchronized (StatIndex.class) {
+            if (entries != null) {
+                return;
+            }
+            ConcurrentHashMap<String, Entry> loaded = new ConcurrentHashMap<>();
+            if (INDEX.exists()) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(INDEX)))) {
+                    BinaryFormat.checkHeader(in, MAGIC, VERSION);
+                    int count = BinaryFormat.readVarInt(in);
+                    for (int i = 0; i < count; i++) {
+                        String fileName = BinaryFormat.readString(in);
+                        String hash = BinaryFormat.readID(in);
+                        loaded.put(fileName, new Entry(hash, in.readLong(), in.readLong(),
+                                in.readLong(), in.readLong()));
+                    }
+                } catch (IOException | GitletException excp) {
+                    // a broken index is only slower, hash the files again
+                    loaded.clear();
+                    changed = true;
+                }
+            }
+            entries = loaded;
+        }
+    }
+
+    /**
+     * Get the size, modified time and inode of the file.
+     */
+    private static long[] stat(File file) {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(file.toPath(),
+                    "unix:size,lastModifiedTime,ino");
+            return new long[]{(Long) attrs.get("size"),
+                ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                (Long) attrs.get("ino")};
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                        BasicFileAttributes.class);
+                return new long[]{attrs.size(),
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0};
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * The current time in nanoseconds, on the same clock as the files' modified time.
+     */
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,344 @@
+package gitlet;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/**
+ * A tree object, the files and sub trees of one directory, like the tree of git.
+ * A tree is stored by the sha1 hash of its bytes, so the same directory in many commits
+ * is stored once, and two trees with the same hash have the same files all the way down.
+ * A commit only stores the hash of its root tree.
+ * <p>
+ * The format, the entries in the order of their names:
+ * MAGIC | VERSION | count | (kind | name | hash) * count
+ * The kind is FILE for a blob and DIR for a sub tree, see BinaryFormat for the name and the hash.
+ * <p>
+ * The paths of the files are the names of the directories and the file joined with SEPARATOR.
+ *
+ * @author GreyQian
+ */
+class Tree {
+    /**
+     * The separator of the names in a path.
+     */
+    static final char SEPARATOR = '/';
+    /**
+     * The magic number of the tree format, "GTRE".
+     */
+    private static final int MAGIC = 0x47545245;
+    /**
+     * The version of the tree format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The kind of an entry that is a file.
+     */
+    private static final byte FILE = 1;
+    /**
+     * The kind of an entry that is a sub tree.
+     */
+    private static final byte DIR = 2;
+    /**
+     * The max number of trees in the cache.
+     */
+    private static final int CACHE_CAPACITY = 1024;
+
+    /**
+     * An entry of a tree, a file or a sub tree.
+     */
+    private static class Entry {
+        /**
+         * The hash of the blob or the sub tree.
+         */
+        private final String hash;
+        /**
+         * Weather the entry is a sub tree.
+         */
+        private final boolean isDir;
+
+        Entry(String hash, boolean isDir) {
+            this.hash = hash;
+            this.isDir = isDir;
+        }
+    }
+
+    /**
+     * The tree without any entry.
+     */
+    private static final Tree EMPTY = new Tree(new TreeMap<>());
+    /**
+     * The trees read in this process, when it's full the least recently used tree is dropped.
+     */
+    private static final Map<String, Tree> CACHE =
+        new LinkedHashMap<String, Tree>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Tree> eldest) {
+                return size() > CACHE_CAPACITY;
+            }
+        };
+
+    /**
+     * The entries of the tree, by name.
+     */
+    private final TreeMap<String, Entry> entries;
+
+    private Tree(TreeMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Apply the changes to the tree and save the new trees, return the hash of the new root tree.
+     * The changes are the paths to their new blob hashes, null for a removed path.
+     * Only the trees on the changed paths are written, the other sub trees are shared.
+     * A null tree hash is the empty tree.
+     */
+    static String update(String treeID, Map<String, String> changes) {
+        TreeMap<String, Entry> entries = new TreeMap<>(read(treeID).entries);
+        Map<String, Map<String, String>> dirChanges = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int separator = path.indexOf(SEPARATOR);
+            if (separator >= 0) {
+                dirChanges.computeIfAbsent(path.substring(0, separator), k -> new TreeMap<>())
+                        .put(path.substring(separator + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, new Entry(change.getValue(), false));
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> dir : dirChanges.entrySet()) {
+            Entry old = entries.get(dir.getKey());
+            boolean wasDir = old != null && old.isDir;
+            String subTreeID = update(wasDir ? old.hash : null, dir.getValue());
+            if (!read(subTreeID).entries.isEmpty()) {
+                entries.put(dir.getKey(), new Entry(subTreeID, true));
+            } else if (wasDir) {
+                // a file of the same name may replace the directory in the same changes
+                entries.remove(dir.getKey());
+            }
+        }
+        return save(entries);
+    }
+
+    /**
+     * Get the blob hash of the file at the path, null if the tree doesn't have it.
+     * Only the trees on the path are read.
+     */
+    static String lookup(String treeID, String path) {
+        Tree tree = read(treeID);
+        int start = 0;
+        int separator;
+        while ((separator = path.indexOf(SEPARATOR, start)) >= 0) {
+            Entry dir = tree.entries.get(path.substring(start, separator));
+            if (dir == null || !dir.isDir) {
+                return null;
+            }
+            tree = read(dir.hash);
+            start = separator + 1;
+        }
+        Entry file = tree.entries.get(path.substring(start));
+        return file == null || file.isDir ? null : file.hash;
+    }
+
+    /**
+     * Get all the files of the tree, path to blob hash, in the order of the paths.
+     */
+    static Map<String, String> flatten(String treeID) {
+        return flatten(treeID, dir -> true);
+    }
+
+    /**
+     * Get the files of the tree right in the directories the filter accepts, path to blob hash,
+     * in the order of the paths. The directory paths are "" for the root, a directory the
+     * filter doesn't accept is skipped without reading it or its sub trees.
+     */
+    static Map<String, String> flatten(String treeID, Predicate<String> dirs) {
+        Map<String, String> files = new TreeMap<>();
+        flatten(treeID, "", dirs, files);
+        return files;
+    }
+
+    /**
+     * Helper function for add the files of the tree under the prefix.
+     */
+    private static void flatten(String treeID, String prefix, Predicate<String> dirs,
+                                Map<String, String> files) {
+        if (!dirs.test(dirPath(prefix))) {
+            return;
+        }
+        for (Map.Entry<String, Entry> entry : read(treeID).entries.entrySet()) {
+            Entry value = entry.getValue();
+            if (value.isDir) {
+                flatten(value.hash, prefix + entry.getKey() + SEPARATOR, dirs, files);
+            } else {
+                files.put(prefix + entry.getKey(), value.hash);
+            }
+        }
+    }
+
+    /**
+     * Add the hashes of the sub trees and of the files right in the tree to the lists.
+     */
+    static void listEntries(String treeID, List<String> subTrees, List<String> files) {
+        read(treeID).listEntries(subTrees, files);
+    }
+
+    /**
+     * Add the hashes of the sub trees and of the files right in this tree to the lists.
+     */
+    void listEntries(List<String> subTrees, List<String> files) {
+        for (Entry entry : entries.values()) {
+            (entry.isDir ? subTrees : files).add(entry.hash);
+        }
+    }
+
+    /**
+     * Drop all the cached trees, like after some trees are removed from the store.
+     */
+    static synchronized void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * Get the files that differ between the two trees, path to the blob hashes in the
+     * first and the second tree, null where the tree doesn't have the file.
+     * The sub trees with the same hash are skipped without reading them.
+     */
+    static Map<String, String[]> diff(String fromID, String toID) {
+        return diff(fromID, toID, dir -> true);
+    }
+
+    /**
+     * Get the files right in the directories the filter accepts that differ between
+     * the two trees, as diff. A directory the filter doesn't accept is skipped.
+     */
+    static Map<String, String[]> diff(String fromID, String toID, Predicate<String> dirs) {
+        Map<String, String[]> changes = new TreeMap<>();
+        diff(fromID, toID, "", dirs, changes);
+        return changes;
+    }
+
+    /**
+     * Helper function for diff the trees under the prefix.
+     */
+    private static void diff(String fromID, String toID, String prefix, Predicate<String> dirs,
+                             Map<String, String[]> changes) {
+        if (Objects.equals(fromID, toID) || !dirs.test(dirPath(prefix))) {
+            return;
+        }
+        Tree from = read(fromID);
+        Tree to = read(toID);
+        Set<String> names = new TreeSet<>(from.entries.keySet());
+        names.addAll(to.entries.keySet());
+        for (String name : names) {
+            Entry fromEntry = from.entries.get(name);
+            Entry toEntry = to.entries.get(name);
+            String fromFile = fromEntry != null && !fromEntry.isDir ? fromEntry.hash : null;
+            String toFile = toEntry != null && !toEntry.isDir ? toEntry.hash : null;
+            if (!Objects.equals(fromFile, toFile)) {
+                changes.put(prefix + name, new String[]{fromFile, toFile});
+            }
+            String fromDir = fromEntry != null && fromEntry.isDir ? fromEntry.hash : null;
+            String toDir = toEntry != null && toEntry.isDir ? toEntry.hash : null;
+            if (!Objects.equals(fromDir, toDir)) {
+                diff(fromDir, toDir, prefix + name + SEPARATOR, dirs, changes);
+            }
+        }
+    }
+
+    /**
+     * Helper function for the path of the directory of the prefix, "" for the root.
+     */
+    private static String dirPath(String prefix) {
+        return prefix.isEmpty() ? "" : prefix.substring(0, prefix.length() - 1);
+    }
+
+    /**
+     * Read the tree given its hash, null is the empty tree.
+     */
+    private static synchronized Tree read(String treeID) {
+        if (treeID == null) {
+            return EMPTY;
+        }
+        Tree tree = CACHE.get(treeID);
+        if (tree == null) {
+            byte[] content = Repository.OBJECTS.read(ObjectStore.Type.TREE, treeID);
+            if (content == null) {
+                throw error("Missing tree %s.", treeID);
+            }
+            tree = fromBytes(content);
+            CACHE.put(treeID, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Helper function for save the tree with the entries if the store doesn't have it,
+     * return its hash.
+     */
+    private static synchronized String save(TreeMap<String, Entry> entries) {
+        Tree tree = new Tree(entries);
+        byte[] content = tree.toBytes();
+        String treeID = sha1(content);
+        if (!Repository.OBJECTS.contains(ObjectStore.Type.TREE, treeID)) {
+            Repository.OBJECTS.write(ObjectStore.Type.TREE, treeID, content);
+        }
+        CACHE.put(treeID, tree);
+        return treeID;
+    }
+
+    /**
+     * Encode the tree.
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            BinaryFormat.writeVarInt(out, entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeByte(entry.getValue().isDir ? DIR : FILE);
+                BinaryFormat.writeString(out, entry.getKey());
+                BinaryFormat.writeID(out, entry.getValue().hash);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a tree.
+     */
+    static Tree fromBytes(byte[] content) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(content))) {
+            BinaryFormat.checkHeader(in, MAGIC, VERSION);
+            int count = BinaryFormat.readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                boolean isDir = in.readByte() == DIR;
+                String name = BinaryFormat.readString(in);
+                entries.put(name, new Entry(BinaryFormat.readID(in), isDir));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new Tree(entries);
+    }
+
+    /**
+     * Make a tree of the files in a directory, path to blob hash, without saving it.
+     * Used by the benchmark.
+     */
+    static Tree ofFiles(Map<String, String> files) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            entries.put(file.getKey(), new Entry(file.getValue(), false));
+        }
+        return new Tree(entries);
+    }
+}
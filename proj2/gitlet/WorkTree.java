@@ -0,0 +1,386 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * The working tree of the repository, the files in the working directory and all its
+ * sub directories, except the .gitlet directory. A file is named by its path from the
+ * working directory, the names joined with Tree.SEPARATOR.
+ * <p>
+ * The walk remembers the files and sub directories of every directory with the directory's
+ * modified time, like the untracked cache of git. The modified time of a directory changes
+ * when an entry is added, removed or renamed in it, so a directory with the same modified time
+ * is not listed again, only its sub directories are walked, and a large working tree is walked
+ * in the time of the directories that changed.
+ * As the stat index, a directory recorded within RACY_NANOS of its modified time is listed again.
+ * <p>
+ * The file format of the cache:
+ * MAGIC | VERSION | count | (path | mtime | recorded | file count | files | dir count | dirs) * count
+ *
+ * @author GreyQian
+ */
+class WorkTree {
+    /**
+     * The file that store the directory cache.
+     */
+    static final File CACHE = join(Repository.GITLET_DIR, "DirCache");
+    /**
+     * The magic number of the cache file, "GDIR".
+     */
+    private static final int MAGIC = 0x47444952;
+    /**
+     * The version of the cache file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The directories recorded closer than this to their modified time are racy.
+     */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * The entries of a directory when it was last listed.
+     */
+    private static class Dir {
+        /**
+         * The modified time of the directory in nanoseconds.
+         */
+        private final long mtime;
+        /**
+         * When the directory was listed, in nanoseconds.
+         * A directory with a symbolic link is recorded at its modified time, so it's racy
+         * and listed again, the link's target can change without changing the directory.
+         */
+        private long recorded;
+        /**
+         * The names of the plain files in the directory, and the links to plain files.
+         */
+        private final List<String> files = new ArrayList<>();
+        /**
+         * The names of the sub directories.
+         */
+        private final List<String> dirs = new ArrayList<>();
+
+        Dir(long mtime, long recorded) {
+            this.mtime = mtime;
+            this.recorded = recorded;
+        }
+    }
+
+    /**
+     * The cached directories by their path, "" for the working directory.
+     */
+    private static Map<String, Dir> dirs = null;
+    /**
+     * Weather the cache changed since it's loaded.
+     */
+    private static boolean changed = false;
+    /**
+     * The stamp of the cache file when it's loaded.
+     */
+    private static String loadedStamp = null;
+
+    /**
+     * Get the paths of all the plain files and the links to them in the working tree,
+     * in lexicographic order.
+     * With a sparse checkout, only the directories of it are walked, see SparseCheckout.
+     */
+    static List<String> listFiles() {
+        load();
+        List<String> files = new ArrayList<>();
+        Map<String, Dir> seen = new HashMap<>();
+        walk(Repository.CWD.toPath(), SparseCheckout.load(), files, seen);
+        if (!seen.keySet().equals(dirs.keySet())) {
+            changed = true;
+        }
+        dirs = seen;
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Convert a file name given by the user to its path in the working tree.
+     * Return null if the file is outside the working directory or in the .gitlet directory.
+     */
+    static String toPath(String fileName) {
+        String path = relativize(fileName);
+        return path == null || path.isEmpty() ? null : path;
+    }
+
+    /**
+     * Get the paths of the working files named by the user's paths, in lexicographic order.
+     * A path is a file, a directory for all the files under it, . for all the working files,
+     * or a glob pattern like *.txt or src/**.java matched against the paths of the working files.
+     * Return null if one of the paths names no file.
+     */
+    static List<String> match(String... fileNames) {
+        SortedSet<String> paths = new TreeSet<>();
+        List<String> workingFiles = null;
+        for (String fileName : fileNames) {
+            String path = relativize(fileName);
+            if (path != null && !path.isEmpty() && join(Repository.CWD, path).isFile()) {
+                paths.add(path);
+                continue;
+            }
+            if (workingFiles == null) {
+                workingFiles = listFiles();
+            }
+            boolean matched = false;
+            if (isGlob(fileName)) {
+                String pattern = fileName.startsWith("./") ? fileName.substring(2) : fileName;
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+                for (String file : workingFiles) {
+                    if (matcher.matches(Paths.get(file))) {
+                        paths.add(file);
+                        matched = true;
+                    }
+                }
+            } else if (path != null && join(Repository.CWD, path).isDirectory()) {
+                String prefix = path.isEmpty() ? "" : path + Tree.SEPARATOR;
+                for (String file : workingFiles) {
+                    if (file.startsWith(prefix)) {
+                        paths.add(file);
+                        matched = true;
+                    }
+                }
+            }
+            if (!matched) {
+                return null;
+            }
+        }
+        return new ArrayList<>(paths);
+    }
+
+    /**
+     * Delete the working file, and the directories it leaves empty.
+     */
+    static void deleteFile(String fileName) {
+        File file = join(Repository.CWD, fileName);
+        if (file.isDirectory() || !file.delete()) {
+            return;
+        }
+        File parent = file.getParentFile();
+        while (!parent.equals(Repository.CWD) && parent.delete()) {
+            // delete only succeeds on an empty directory
+            parent = parent.getParentFile();
+        }
+    }
+
+    /**
+     * Save the cache if it changed.
+     */
+    static void save() {
+        if (!changed || !Repository.GITLET_DIR.exists()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(CACHE)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            BinaryFormat.writeVarInt(out, dirs.size());
+            for (Map.Entry<String, Dir> entry : dirs.entrySet()) {
+                Dir dir = entry.getValue();
+                BinaryFormat.writeString(out, entry.getKey());
+                out.writeLong(dir.mtime);
+                out.writeLong(dir.recorded);
+                writeNames(out, dir.files);
+                writeNames(out, dir.dirs);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        changed = false;
+        loadedStamp = MyUtils.getStamp(CACHE);
+    }
+
+    /**
+     * Helper function for walk the directory, add its files and the files of its sub directories.
+     * A directory not changed since it's cached is not listed, its cached sub directories are
+     * walked one by one. A directory the sparse checkout doesn't include is not walked.
+     */
+    private static void walk(Path start, SparseCheckout sparse, List<String> files,
+                             Map<String, Dir> seen) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                /**
+                 * The directories being listed, the innermost on the top.
+                 */
+                private final Deque<Dir> listing = new ArrayDeque<>();
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    String path = pathOf(dir);
+                    if (path.equals(".gitlet")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (!listing.isEmpty()) {
+                        listing.peek().dirs.add(dir.getFileName().toString());
+                    }
+                    if (!sparse.includesDir(path)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+                    Dir cached = dirs.get(path);
+                    if (cached != null && cached.mtime == mtime
+                            && cached.recorded - mtime >= RACY_NANOS) {
+                        seen.put(path, cached);
+                        for (String name : cached.files) {
+                            files.add(childPath(path, name));
+                        }
+                        for (String name : cached.dirs) {
+                            walk(dir.resolve(name), sparse, files, seen);
+                        }
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    Dir listed = new Dir(mtime, now());
+                    seen.put(path, listed);
+                    listing.push(listed);
+                    changed = true;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (listing.isEmpty()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    boolean isFile = attrs.isRegularFile();
+                    if (attrs.isSymbolicLink()) {
+                        // a link to a plain file is a file, as File.isFile follows it
+                        listing.peek().recorded = listing.peek().mtime;
+                        isFile = Files.isRegularFile(file);
+                    }
+                    if (isFile) {
+                        String name = file.getFileName().toString();
+                        listing.peek().files.add(name);
+                        files.add(pathOf(file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException excp) {
+                    // removed while walking, or can't be read
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException excp) {
+                    listing.pop();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Helper function for normalize the file name given by the user to its path in the working
+     * tree, "" for the working directory. Return null if the file is outside the working
+     * directory or in the .gitlet directory.
+     */
+    private static String relativize(String fileName) {
+        Path cwd = Repository.CWD.toPath().toAbsolutePath().normalize();
+        Path path = cwd.resolve(fileName).normalize();
+        if (!path.startsWith(cwd)) {
+            return null;
+        }
+        String relative = cwd.relativize(path).toString()
+                .replace(File.separatorChar, Tree.SEPARATOR);
+        if (relative.equals(".gitlet") || relative.startsWith(".gitlet" + Tree.SEPARATOR)) {
+            return null;
+        }
+        return relative;
+    }
+
+    /**
+     * Helper function for check weather the file name is a glob pattern.
+     */
+    private static boolean isGlob(String fileName) {
+        for (char c : "*?[{".toCharArray()) {
+            if (fileName.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper function for get the path of the file or directory in the working tree.
+     */
+    private static String pathOf(Path path) {
+        Path relative = Repository.CWD.toPath().relativize(path);
+        return relative.toString().replace(File.separatorChar, Tree.SEPARATOR);
+    }
+
+    /**
+     * Helper function for join the directory path and a name in it.
+     */
+    private static String childPath(String dir, String name) {
+        return dir.isEmpty() ? name : dir + Tree.SEPARATOR + name;
+    }
+
+    /**
+     * Helper function for load the cache, reload it if another process saved it.
+     */
+    private static void load() {
+        String stamp = MyUtils.getStamp(CACHE);
+        if (dirs != null && (changed || stamp.equals(loadedStamp))) {
+            return;
+        }
+        dirs = new HashMap<>();
+        changed = false;
+        loadedStamp = stamp;
+        if (!CACHE.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(CACHE)))) {
+            BinaryFormat.checkHeader(in, MAGIC, VERSION);
+            int count = BinaryFormat.readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                String path = BinaryFormat.readString(in);
+                Dir dir = new Dir(in.readLong(), in.readLong());
+                readNames(in, dir.files);
+                readNames(in, dir.dirs);
+                dirs.put(path, dir);
+            }
+        } catch (IOException | GitletException excp) {
+            // a broken cache is only slower, list everything again
+            dirs = new HashMap<>();
+        }
+    }
+
+    /**
+     * Helper function for write a list of names.
+     */
+    private static void writeNames(DataOutput out, List<String> names) throws IOException {
+        BinaryFormat.writeVarInt(out, names.size());
+        for (String name : names) {
+            BinaryFormat.writeString(out, name);
+        }
+    }
+
+    /**
+     * Helper function for read a list of names.
+     */
+    private static void readNames(DataInput in, List<String> names) throws IOException {
+        int count = BinaryFormat.readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            names.add(BinaryFormat.readString(in));
+        }
+    }
+
+    /**
+     * The current time in nanoseconds, on the same clock as the modified time.
+     */
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+}
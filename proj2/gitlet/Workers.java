@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * The worker threads for the work on many files, like scanning and hashing the working files.
+ * The number of threads is the threads setting, by default the number of processors,
+ * with 1 thread the work is done on the calling thread.
+ * The results are always in the same order as the input, so the output doesn't
+ * depend on the number of threads.
+ *
+ * @author GreyQian
+ */
+class Workers {
+    /**
+     * The number of worker threads.
+     */
+    static final int THREADS = Math.max(1,
+            Config.getInt("threads", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The pool of the workers, created when first needed.
+     */
+    private static ForkJoinPool pool = null;
+
+    /**
+     * Apply the function to every item, return the map from item to result in the items' order.
+     */
+    static <T, R> Map<T, R> map(Collection<T> items, Function<T, R> function) {
+        if (THREADS == 1 || items.size() < 2) {
+            Map<T, R> results = new LinkedHashMap<>();
+            for (T item : items) {
+                results.put(item, function.apply(item));
+            }
+            return results;
+        }
+        List<T> list = new ArrayList<>(items);
+        List<R> values = run(() -> list.parallelStream().map(function)
+                .collect(Collectors.toList()));
+        Map<T, R> results = new LinkedHashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            results.put(list.get(i), values.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Get the items which pass the test, in the items' order.
+     */
+    static <T> List<T> filter(Collection<T> items, Predicate<T> test) {
+        if (THREADS == 1 || items.size() < 2) {
+            List<T> results = new ArrayList<>();
+            for (T item : items) {
+                if (test.test(item)) {
+                    results.add(item);
+                }
+            }
+            return results;
+        }
+        return run(() -> items.parallelStream().filter(test).collect(Collectors.toList()));
+    }
+
+    /**
+     * Run the parallel stream task in the pool, so it uses THREADS threads.
+     */
+    private static <R> R run(Callable<R> task) {
+        if (pool == null) {
+            pool = new ForkJoinPool(THREADS);
+        }
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}